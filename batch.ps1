@@ -0,0 +1,2 @@
+javac -d bin -sourcepath src --add-modules jdk.incubator.vector src/BatchRunner.java
+java --add-modules jdk.incubator.vector -cp bin BatchRunner $args
\ No newline at end of file
@@ -0,0 +1,6 @@
+#!/bin/sh
+# Builds and runs the headless batch runner. Doesn't need JavaFX.
+# File paths are relative to wherever this is run from, not the project folder.
+dir="$(dirname "$0")"
+javac -d "$dir/bin" -sourcepath "$dir/src" --add-modules jdk.incubator.vector "$dir/src/BatchRunner.java" || exit 1
+exec java --add-modules jdk.incubator.vector -cp "$dir/bin" BatchRunner "$@"
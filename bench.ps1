@@ -0,0 +1,4 @@
+# The Vector API is an incubator module, so it has to be added to be used.
+javac -d bench-bin -sourcepath src --add-modules jdk.incubator.vector bench/Benchmark.java
+# A fixed heap size keeps garbage collection from changing between runs.
+java -Xms2g -Xmx2g -XX:+AlwaysPreTouch --add-modules jdk.incubator.vector -cp bench-bin Benchmark $args
\ No newline at end of file
@@ -0,0 +1,8 @@
+#!/bin/sh
+# Builds and runs the benchmarks. Doesn't need JavaFX, so it works on headless machines.
+# Pass part of a benchmark name (like "step" or "load .cgol") to only run those.
+cd "$(dirname "$0")" || exit 1
+# The Vector API is an incubator module, so it has to be added to be used.
+javac -d bench-bin -sourcepath src --add-modules jdk.incubator.vector bench/Benchmark.java || exit 1
+# A fixed heap size keeps garbage collection from changing between runs.
+exec java -Xms2g -Xmx2g -XX:+AlwaysPreTouch --add-modules jdk.incubator.vector -cp bench-bin Benchmark "$@"
@@ -0,0 +1,276 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.Files;
+import java.util.*;
+
+/*
+Benchmarks for the parts of the program that have to be fast: stepping the board (what
+tick() does), saving and loading, and taking the snapshots the display draws from.
+
+Every benchmark runs in a JVM of its own, started with the same options as this one, so
+what the JIT learned and the garbage the last benchmark left behind can't affect the next.
+The first JVM just works out which benchmarks to run and starts the others one at a time.
+
+Each benchmark is run a few times to warm up, then timed over several rounds. Each round
+starts from exactly the same board (made from a fixed random seed) and does exactly the same
+number of operations, so the same work gets measured every time and on every machine. The
+results are printed as the average and standard deviation across the rounds, along with how
+many bytes were allocated per operation (by the benchmark's own thread), and how many
+garbage collections happened during the timed rounds and how long they took.
+
+None of this needs JavaFX, so it runs fine on a headless machine. Use bench.ps1 on Windows or
+bench.sh on Linux, optionally with part of a benchmark name to only run the ones that match,
+for example "./bench.sh step" or "./bench.sh load".
+*/
+
+public class Benchmark {
+    // The same seed every time, so every run fills its boards the same way.
+    static final long SEED = 150;
+
+    static final int WARMUP_ROUNDS = 3;
+    static final int MEASURED_ROUNDS = 8;
+
+    // Roughly how long each round should take. The number of operations per round is
+    // picked during the first warmup round and then kept the same for the rest.
+    static final long ROUND_NANOS = 250_000_000L;
+
+    static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    // Only benchmarks whose names contain this get run.
+    static String filter = "";
+
+    // The benchmark this JVM is to run, if it's one of the forked ones, or null if it's
+    // the first one, in which case the benchmarks' names get collected in names instead.
+    static String only = null;
+    static final List<String> names = new ArrayList<>();
+
+    // Results get stored here so the JIT can't decide they're unused and skip the work.
+    static Object sink;
+
+    interface Action {
+        void run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 2 && args[0].equals("--only")) {
+            only = args[1];
+            runBenchmarks();
+            return;
+        }
+        if (args.length > 0) {
+            filter = args[0];
+        }
+        System.out.println("Java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name")
+                + "), " + Runtime.getRuntime().availableProcessors() + " cores, "
+                + Runtime.getRuntime().maxMemory() / (1024 * 1024) + "MB heap");
+        System.out.printf("%-48s %22s %14s %16s%n", "Benchmark", "Score", "Allocated", "GC");
+
+        // Going through the benchmarks without an only just collects their names.
+        runBenchmarks();
+        String java = ProcessHandle.current().info().command().orElse("java");
+        for (String name : names) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"), "Benchmark", "--only", name));
+            int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exitCode != 0) {
+                System.err.println(name + " failed with exit code " + exitCode);
+                System.exit(exitCode);
+            }
+        }
+    }
+
+    // Whether the benchmark with this name should be run by this JVM. The first JVM never
+    // runs any, but notes down the ones that match the filter.
+    static boolean selected(String name) {
+        if (only == null) {
+            if (name.contains(filter)) {
+                names.add(name);
+            }
+            return false;
+        }
+        return name.equals(only);
+    }
+
+    static void runBenchmarks() throws IOException {
+        // Stepping, across board sizes, densities, and with wraparound on and off. 50x75 is
+        // the default board size.
+        int[][] sizes = { { 75, 50 }, { 256, 256 }, { 1024, 1024 }, { 4096, 4096 }, { 8192, 8192 } };
+        double[] densities = { 0.05, 0.25, 0.5 };
+        Topology[] topologies = { Topology.DEAD, Topology.TORUS };
+        for (int[] size : sizes) {
+            for (double density : densities) {
+                Board cells = null;
+                for (Topology topology : topologies) {
+                    String name = "step " + size[0] + "x" + size[1] + " density " + density + " " + topology.name().toLowerCase();
+                    if (!selected(name)) {
+                        continue;
+                    }
+                    if (cells == null) {
+                        cells = randomBoard(size[0], size[1], density);
+                    }
+                    benchmarkStep(name, cells, topology, StepMode.SERIAL);
+                }
+            }
+        }
+
+        // The different ways of stepping, on one big board.
+        Board bigBoard = null;
+        for (StepMode mode : StepMode.values()) {
+            String name = "step mode " + mode.name().toLowerCase() + " 4096x4096 density 0.25 torus";
+            if (!selected(name)) {
+                continue;
+            }
+            if (bigBoard == null) {
+                bigBoard = randomBoard(4096, 4096, 0.25);
+            }
+            benchmarkStep(name, bigBoard, Topology.TORUS, mode);
+        }
+
+        // Saving and loading. A sparse board gets saved run-length encoded and a dense one
+        // bit-packed, so both encodings are covered.
+        File directory = Files.createTempDirectory("cgol-bench").toFile();
+        directory.deleteOnExit();
+        for (int size : new int[] { 1024, 8192 }) {
+            for (double density : new double[] { 0.01, 0.5 }) {
+                benchmarkFile(size + "x" + size + " density " + density, ".cgol", size, density, directory);
+            }
+        }
+        for (String extension : new String[] { ".rle", ".mc" }) {
+            benchmarkFile("1024x1024 density 0.01", extension, 1024, 0.01, directory);
+        }
+
+        // Snapshots, which get taken every time the display is sent a new generation.
+        for (int size : new int[] { 1024, 8192 }) {
+            String name = "snapshot " + size + "x" + size;
+            if (!selected(name)) {
+                continue;
+            }
+            Board board = randomBoard(size, size, 0.25);
+            boolean[] changedTiles = new boolean[board.tilesAcross * board.tilesDown];
+            measure(name, (double) size * size / 1e6, "Mcells/s", () -> {
+            }, () -> sink = new Snapshot(board, changedTiles));
+        }
+    }
+
+    // A board of the given size, with each cell alive with the given probability.
+    static Board randomBoard(int width, int height, double density) {
+        Board board = new Board(width, height, Topology.DEAD);
+        board.randomize(new Random(SEED), density);
+        return board;
+    }
+
+    static void benchmarkStep(String name, Board cells, Topology topology, StepMode mode) throws IOException {
+        Board board = new Board(cells.width, cells.height, topology);
+        board.stepMode = mode;
+        measure(name, 1, "gen/s", () -> {
+            // Put the board back how it started before every round.
+            System.arraycopy(cells.cells, 0, board.cells, 0, cells.cells.length);
+            board.generation = 0;
+            board.markAllChanged();
+        }, board::step);
+    }
+
+    static void benchmarkFile(String description, String extension, int size, double density, File directory)
+            throws IOException {
+        boolean saving = selected("save " + extension + " " + description);
+        boolean loading = selected("load " + extension + " " + description);
+        if (!saving && !loading) {
+            return;
+        }
+
+        Board board = randomBoard(size, size, density);
+        File file = new File(directory, "bench" + extension);
+        file.deleteOnExit();
+        double megacells = (double) size * size / 1e6;
+        boolean pattern = PatternIO.isPatternFile(file);
+
+        // Saving includes taking the snapshot, since that's part of what App.save() does.
+        Action save = pattern ? () -> PatternIO.write(file, board)
+                : () -> CgolFormat.write(new Snapshot(board, null, null, true), file);
+        if (saving) {
+            measure("save " + extension + " " + description, megacells, "Mcells/s", () -> {
+            }, save);
+        }
+
+        if (loading) {
+            save.run();
+            Board target = new Board(size, size, Topology.DEAD);
+            Action load = pattern ? () -> PatternIO.read(file, target, 0, 0) : () -> sink = CgolFormat.read(file);
+            measure("load " + extension + " " + description, megacells, "Mcells/s", target::clear, load);
+        }
+    }
+
+    // Time an operation, printing how many units of work it gets through per second and
+    // how much it allocates each time.
+    static void measure(String name, double unitsPerOperation, String unit, Action setUp, Action operation)
+            throws IOException {
+        // The first warmup round just sees how many operations fit in a round.
+        setUp.run();
+        int operationsPerRound = 0;
+        long start = System.nanoTime();
+        do {
+            operation.run();
+            operationsPerRound++;
+        } while (System.nanoTime() - start < ROUND_NANOS);
+
+        for (int round = 1; round < WARMUP_ROUNDS; round++) {
+            setUp.run();
+            for (int i = 0; i < operationsPerRound; i++) {
+                operation.run();
+            }
+        }
+
+        double[] scores = new double[MEASURED_ROUNDS];
+        long allocated = 0;
+        long collections = 0;
+        long collectionMillis = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            setUp.run();
+            long collectionsBefore = collections();
+            long collectionMillisBefore = collectionMillis();
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long before = System.nanoTime();
+            for (int i = 0; i < operationsPerRound; i++) {
+                operation.run();
+            }
+            long elapsed = System.nanoTime() - before;
+            allocated += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            collections += collections() - collectionsBefore;
+            collectionMillis += collectionMillis() - collectionMillisBefore;
+            scores[round] = operationsPerRound * unitsPerOperation / (elapsed / 1e9);
+        }
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score / MEASURED_ROUNDS;
+        }
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean) / (MEASURED_ROUNDS - 1);
+        }
+        long bytesPerOperation = allocated / ((long) operationsPerRound * MEASURED_ROUNDS);
+        System.out.printf("%-48s %10.1f +- %-9.1f %-8s %9d B/op %5d GCs %5d ms%n", name, mean,
+                Math.sqrt(variance), unit, bytesPerOperation, collections, collectionMillis);
+    }
+
+    // How many garbage collections there have been so far, of any kind.
+    static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionCount());
+        }
+        return total;
+    }
+
+    // How long they've taken altogether, in milliseconds.
+    static long collectionMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -1 +1 @@
-javac -d bin --module-path '.\javafx-sdk-22\lib' --add-modules javafx.controls src/App.java
\ No newline at end of file
+javac -d bin -sourcepath src --module-path '.\javafx-sdk-22\lib' --add-modules javafx.controls,jdk.incubator.vector src/App.java
\ No newline at end of file
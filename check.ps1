@@ -0,0 +1,11 @@
+# Builds and runs the correctness checks in check/, stopping at the first one that fails.
+# Pass the name of a check (like SparseCheck) to only run that one.
+javac -d check-bin -sourcepath src --add-modules jdk.incubator.vector (Get-ChildItem check/*.java)
+if ($LASTEXITCODE -ne 0) { exit 1 }
+foreach ($file in Get-ChildItem check/*.java) {
+    if ($args.Count -eq 0 -or $args[0] -eq $file.BaseName) {
+        Write-Output $file.BaseName
+        java --add-modules jdk.incubator.vector -cp check-bin $file.BaseName
+        if ($LASTEXITCODE -ne 0) { exit 1 }
+    }
+}
@@ -0,0 +1,13 @@
+#!/bin/sh
+# Builds and runs the correctness checks in check/, stopping at the first one that fails.
+# Doesn't need JavaFX, so it works on headless machines.
+# Pass the name of a check (like SparseCheck) to only run that one.
+cd "$(dirname "$0")" || exit 1
+javac -d check-bin -sourcepath src --add-modules jdk.incubator.vector check/*.java || exit 1
+for file in check/*.java; do
+    name="$(basename "$file" .java)"
+    if [ -z "$1" ] || [ "$1" = "$name" ]; then
+        echo "$name"
+        java --add-modules jdk.incubator.vector -cp check-bin "$name" || exit 1
+    fi
+done
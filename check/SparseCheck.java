@@ -0,0 +1,88 @@
+import java.util.*;
+
+/*
+Checks that the sparse step (StepMode.SPARSE) ends up with exactly the same cells as the
+plain full scan. The sparse step skips tiles it thinks can't have changed, so anything it
+gets wrong about which ones those are shows up here as a difference.
+
+Each case fills a pair of boards the same way, steps one sparsely and the other with a full
+scan, and compares every cell (and the population) after every generation. Along the way
+cells get toggled and the rule gets swapped out, since those are what tell the sparse step
+which tiles to look at. Empty boards are checked too, under rules with B0, where empty
+space doesn't stay empty.
+
+Run it with check.sh on Linux or check.ps1 on Windows. It prints "ok" and exits normally
+if everything matched, or stops at the first difference with an exception.
+*/
+
+public class SparseCheck {
+    // The same seed every time, so a failure can be repeated.
+    static final long SEED = 5;
+
+    static final String[] RULES = { "B3/S23", "B36/S23", "B2/S", "B0/S", "B0123478/S34678", "B2/S/C3" };
+
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        for (Topology topology : Topology.values()) {
+            for (String rule : RULES) {
+                // A new board, with nothing on it, has to come out the same too.
+                check(random, 128, 128, topology, rule, 0);
+                for (int i = 0; i < 4; i++) {
+                    check(random, 1 + random.nextInt(300), 1 + random.nextInt(200), topology, rule,
+                            random.nextDouble() * 0.4);
+                }
+            }
+        }
+        System.out.println("ok");
+    }
+
+    // Step a random board both ways and compare them after every generation. Most of the
+    // living cells are put in the left third, so plenty of tiles have nothing going on.
+    static void check(Random random, int width, int height, Topology topology, String rule, double density) {
+        Board full = new Board(width, height, topology);
+        Board sparse = new Board(width, height, topology);
+        full.rule = Rule.parse(rule);
+        sparse.rule = full.rule;
+        sparse.stepMode = StepMode.SPARSE;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean alive = random.nextDouble() < density * (x < width / 3 ? 1 : 0.02);
+                full.set(x, y, alive);
+                sparse.set(x, y, alive);
+            }
+        }
+        String name = rule + " on " + width + "x" + height + " " + topology;
+        for (int generation = 0; generation < 60; generation++) {
+            if (generation % 17 == 5) {
+                int x = random.nextInt(width);
+                int y = random.nextInt(height);
+                full.toggle(x, y);
+                sparse.toggle(x, y);
+            }
+            if (generation == 30) {
+                // Switch rule partway through, after the board's had time to settle down.
+                full.rule = Rule.parse(RULES[random.nextInt(RULES.length)]);
+                sparse.rule = full.rule;
+                name += " then " + full.rule;
+            }
+            full.step();
+            sparse.step();
+            compare(full, sparse, name + ", generation " + generation);
+        }
+    }
+
+    static void compare(Board expected, Board actual, String name) {
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                if (expected.state(x, y) != actual.state(x, y)) {
+                    throw new IllegalStateException(name + ": cell (" + x + ", " + y + ") is " + actual.state(x, y)
+                            + " but should be " + expected.state(x, y));
+                }
+            }
+        }
+        if (expected.population() != actual.population()) {
+            throw new IllegalStateException(
+                    name + ": population is " + actual.population() + " but should be " + expected.population());
+        }
+    }
+}
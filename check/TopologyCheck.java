@@ -0,0 +1,116 @@
+import java.util.*;
+
+/*
+Checks that stepping gets the edges right, for every topology, every step mode and every
+kind of rule. The board steps with its halo (and its word-at-a-time tricks), while the
+answer it's checked against is worked out the slow and obvious way: one cell at a time,
+finding each neighbour with Topology.wrap and counting it, then going by the rule's birth
+and survival counts.
+
+Boards come in all sorts of sizes, including ones narrower than a word, exactly a word
+wide, and not a whole number of tiles in either direction, since those are where edges
+tend to go wrong. Every cell's state and the population are compared after every
+generation.
+
+Run it with check.sh on Linux or check.ps1 on Windows. It prints "ok" and exits normally
+if everything matched, or stops at the first difference with an exception.
+*/
+
+public class TopologyCheck {
+    // The same seed every time, so a failure can be repeated.
+    static final long SEED = 1;
+
+    static final String[] RULES = { "B3/S23", "B36/S23", "B3678/S34678", "B2/S", "B0/S", "B2/S/C3", "B2/S345/C4",
+            "R2,C0,M1,S3..5,B3..4,NN", "R3,C0,M0,S4..12,B5..9,NM" };
+
+    static final int[][] SIZES = { { 1, 1 }, { 5, 3 }, { 64, 64 }, { 63, 65 }, { 130, 70 } };
+
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        for (Topology topology : Topology.values()) {
+            for (StepMode stepMode : StepMode.values()) {
+                for (String rule : RULES) {
+                    for (int[] size : SIZES) {
+                        check(random, size[0], size[1], topology, stepMode, Rule.parse(rule));
+                    }
+                    check(random, 1 + random.nextInt(200), 1 + random.nextInt(100), topology, stepMode,
+                            Rule.parse(rule));
+                }
+            }
+        }
+        System.out.println("ok");
+    }
+
+    static void check(Random random, int width, int height, Topology topology, StepMode stepMode, Rule rule) {
+        Board board = new Board(width, height, topology);
+        board.stepMode = stepMode;
+        board.rule = rule;
+        // The expected state of each cell, at y * width + x.
+        int[] expected = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean alive = random.nextDouble() < 0.3;
+                board.set(x, y, alive);
+                expected[y * width + x] = alive ? 1 : 0;
+            }
+        }
+        String name = rule + " on " + width + "x" + height + " " + topology + " " + stepMode;
+        for (int generation = 0; generation < 8; generation++) {
+            expected = step(board, expected);
+            board.step();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (board.state(x, y) != expected[y * width + x]) {
+                        throw new IllegalStateException(name + ", generation " + generation + ": cell (" + x + ", "
+                                + y + ") is " + board.state(x, y) + " but should be " + expected[y * width + x]);
+                    }
+                }
+            }
+            long population = Arrays.stream(expected).filter(state -> state == 1).count();
+            if (board.population() != population) {
+                throw new IllegalStateException(name + ", generation " + generation + ": population is "
+                        + board.population() + " but should be " + population);
+            }
+        }
+    }
+
+    // The generation after cells, worked out one cell at a time. Only the board's size,
+    // topology and rule are used, not its cells.
+    static int[] step(Board board, int[] cells) {
+        Rule rule = board.rule;
+        int width = board.width;
+        int height = board.height;
+        int[] result = new int[cells.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Only living cells count as neighbours, not dying ones.
+                int count = 0;
+                for (int dy = -rule.range; dy <= rule.range; dy++) {
+                    for (int dx = -rule.range; dx <= rule.range; dx++) {
+                        if (rule.vonNeumann && Math.abs(dx) + Math.abs(dy) > rule.range) {
+                            continue;
+                        }
+                        if (dx == 0 && dy == 0 && !rule.includesSelf) {
+                            continue;
+                        }
+                        int index = board.topology.wrap(board, x + dx, y + dy);
+                        if (index >= 0 && cells[index] == 1) {
+                            count++;
+                        }
+                    }
+                }
+                int state = cells[y * width + x];
+                int next;
+                if (state == 0) {
+                    next = rule.birth[count] ? 1 : 0;
+                } else if (state == 1) {
+                    next = rule.survive[count] ? 1 : rule.states > 2 ? 2 : 0;
+                } else {
+                    next = state + 1 < rule.states ? state + 1 : 0;
+                }
+                result[y * width + x] = next;
+            }
+        }
+        return result;
+    }
+}
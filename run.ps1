@@ -1,3 +1,3 @@
 cd bin
-java --module-path '..\javafx-sdk-22\lib' --add-modules javafx.controls App
+java --module-path '..\javafx-sdk-22\lib' --add-modules javafx.controls,jdk.incubator.vector App
 cd ..
\ No newline at end of file
@@ -1,10 +1,9 @@
 import java.io.*;
 import java.util.*;
-import javafx.animation.*;
 import javafx.application.Application;
-import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.value.ChangeListener;
-import javafx.collections.*;
+import javafx.collections.FXCollections;
 import javafx.geometry.*;
 import javafx.scene.*;
 import javafx.scene.control.*;
@@ -14,7 +13,6 @@ import javafx.scene.paint.*;
 import javafx.scene.shape.Rectangle;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.*;
-import javafx.util.Duration;
 // Turns out this app needs a lot of imports.
 // Most of them are just from various places in JavaFX, though unfortunately I can't really collapse them at all.
 
@@ -28,37 +26,65 @@ public class App extends Application {
     static int rows = 50;
     static int columns = 75;
 
-    static boolean doWraparound = true;
+    // What happens to cells that go off the edge of the grid.
+    static Topology topology = Topology.TORUS;
+
+    // Whether there's no edge at all, in which case the cells live on an unbounded Plane
+    // instead of a Board. rows and columns are then just the area that's randomized and
+    // shown to start with.
+    static boolean unbounded = false;
+
+    // Whether the board steps on one thread or on all of them.
+    static StepMode stepMode = StepMode.SERIAL;
+
+    // The rule cells live and die by. See Rule.java for all the kinds there are.
+    static Rule rule = Rule.CONWAY;
 
     // This needs to be a property so that its display can see when it changes.
-    static SimpleIntegerProperty generationIndex = new SimpleIntegerProperty(0);
+    // It's a long, since jumpGenerations can go a long way past what an int can hold.
+    static SimpleLongProperty generationIndex = new SimpleLongProperty(0);
+
+    // The HashLife engine used for jumping ahead. Its node cache is allowed to use
+    // this much memory before it's garbage collected.
+    static final long hashLifeMemory = 256L * 1024 * 1024;
+    static HashLife hashLife = new HashLife(hashLifeMemory);
+
+    // How much memory the undo history can use. The more it has, the further back the
+    // board can be rewound.
+    static long historyMemory = History.DEFAULT_BUDGET;
+
+    // Saves the board in the background every so often, so a crash doesn't lose a long
+    // run. See Autosave.java.
+    static Autosave autosave;
+    static int autosaveSeconds = Autosave.DEFAULT_INTERVAL;
 
-    // cellSize is 0 because it's recomputed whenever initializeGrid is called.
-    static double cellSize = 0;
+    // The size of the area the grid is drawn in. Cells are zoomed to fit it whenever
+    // initializeGrid is called.
     static double maxWidth = 512;
     static double maxHeight = 256;
 
     static int screenWidth = 640;
     static int screenHeight = 480;
 
-    // The innermost lists must also be observable, for the same reason as the
-    // generationIndex.
-    // The display tiles need to be able to know when a value is updated (such as
-    // from tick()).
-    static ArrayList<ObservableList<Boolean>> gridData = new ArrayList<>();
-
-    // The only reason this variable is static is so initializeGrid can always
-    // access it.
-    static GridPane grid = new GridPane();
+    // The cells themselves live in a Board, which knows nothing about JavaFX. The
+    // simulator owns it and steps it on its own thread, so the UI never touches it
+    // directly: changes are sent to the simulator as commands, and what's on screen
+    // comes from the snapshots it publishes.
+    static Simulator simulator;
 
     // Colour scheme for everything that has a colour (grid cells, backgrounds).
-    static Paint deadColour = Color.rgb(20, 20, 20);
-    static Paint aliveColour = Color.rgb(255, 255, 255);
-    static Paint borderColour = Color.rgb(110, 110, 110);
+    static Color deadColour = Color.rgb(20, 20, 20);
+    static Color aliveColour = Color.rgb(255, 255, 255);
+    static Color borderColour = Color.rgb(110, 110, 110);
 
-    static Paint gridColour = Color.rgb(0, 0, 0);
+    static Color gridColour = Color.rgb(0, 0, 0);
     static Paint backgroundColour = Color.rgb(180, 180, 180);
 
+    // The grid is drawn onto a single canvas, rather than having a node for every cell.
+    // The only reason this variable is static is so initializeGrid can always
+    // access it. It's created in start(), once JavaFX is up and running.
+    static BoardView view;
+
     // Button images from Icons8 (icons8.com).
     static String stepImageName = "https://img.icons8.com/?size=256&id=120436&format=png";
     static String playImageName = "https://img.icons8.com/?size=256&id=59862&format=png";
@@ -72,105 +98,86 @@ public class App extends Application {
         launch(args);
     }
 
+    // Step the board forwards one generation. This happens on the simulation thread,
+    // where the board does all the real work: it counts neighbours for 64 cells at a
+    // time and writes the next generation into its spare buffer, so nothing needs to
+    // be copied or allocated per tick.
     public static void tick() {
-        // Go through the gridData and make an element-wise copy of it, in
-        // regular ArrayList format. This is for keeping track of what was
-        // where from last frame.
-        ArrayList<ArrayList<Boolean>> data = new ArrayList<>();
-        for (ObservableList<Boolean> column : gridData) {
-            ArrayList<Boolean> newColumn = new ArrayList<>();
-            data.add(newColumn);
-            for (boolean value : column) {
-                newColumn.add(value);
-            }
-        }
+        simulator.stepOnce();
+    }
 
-        // Loop over every cell in the grid, keeping track of its row/column index.
-        for (int xPos = 0; xPos < gridData.size(); xPos++) {
-            ObservableList<Boolean> arr = gridData.get(xPos);
-            for (int yPos = 0; yPos < arr.size(); yPos++) {
-                // Store whether or not the cell is alive.
-                // We can use the currently-updating array for this,
-                // since we haven't changed this cell yet.
-                boolean cellValue = arr.get(yPos);
-
-                // Loop over a 3x3 grid centered on the current cell,
-                // counting the number of living cells encountered.
-
-                // The neighbourhood looks like this: .....
-                // The O is the current cell, Ns are .NNN.
-                // its neighbours (though the O is .NON.
-                // also counted), and . is irrelevant .NNN.
-                // as it's too far away to be counted .....
-                int neighboursAlive = 0;
-                for (int dx = -1; dx <= 1; dx++) {
-                    for (int dy = -1; dy <= 1; dy++) {
-                        try {
-                            // Need to pull from the copied data,
-                            // so that previous alterations don't disturb
-                            // others in the same tick
-                            if (data.get(xPos + dx).get(yPos + dy)) {
-                                neighboursAlive++;
-                            }
-                        } catch (IndexOutOfBoundsException _) {
-                            // This will error when data.get tries to check outside the range of the grid.
-                            // Reindex where the neighbour would be, using modulo operator.
-                            // Only do this if wraparound is enabled.
-                            if ( doWraparound
-                                    && data.get((xPos + dx + columns) % columns).get((yPos + dy + rows) % rows)) {
-                                neighboursAlive++;
-                            }
-                        }
-                    }
+    // Move the board forwards a given number of generations all at once.
+    public static void jumpGenerations(long generations) {
+        simulator.submit(() -> {
+            Plane plane = simulator.plane;
+            if (plane != null) {
+                // An unbounded plane is what HashLife does best.
+                if (!hashLife.rule.equals(plane.rule)) {
+                    hashLife = new HashLife(hashLifeMemory, plane.rule);
                 }
-
-                // If either 3 neighbours alive or (I'm alive and so are 3 other tiles around
-                // me).
-                // This accounts for 3 cases: dead + 3 neighbours alive, alive + 2 neighbours
-                // alive (in which case neighboursAlive counts 3 within the square), and
-                // alive + 3 neighbours alive (in which case neighboursAlive sees 4).
-                arr.set(yPos, neighboursAlive == 3 || (neighboursAlive == 4 && cellValue));
+                hashLife.load(plane);
+                hashLife.advance(generations);
+                hashLife.store(plane);
+                plane.generation += generations;
+                return;
             }
-        }
-
-        // This is the SimpleIntegerProperty version of generationIndex++
-        generationIndex.set(generationIndex.get() + 1);
+            Board board = simulator.board;
+            if (HashLife.supportsTorus(board)) {
+                // HashLife can cover billions of generations in the time tick() takes for a
+                // handful, but it only knows how to wrap around square power-of-two boards.
+                // Everything it's worked out is for one rule, so a new rule needs a new one.
+                if (!hashLife.rule.equals(board.rule)) {
+                    hashLife = new HashLife(hashLifeMemory, board.rule);
+                }
+                hashLife.load(board);
+                hashLife.advanceTorus(generations);
+                hashLife.store(board);
+                board.generation += generations;
+            } else {
+                // Any other size or topology has to be stepped the normal way, which the
+                // simulator does a slice at a time so it can still be paused or edited
+                // partway through.
+                simulator.jump(generations);
+            }
+        });
     }
 
-    // .cgol file spec (for saving and loading):
-    // "1 int" refers to the amount of space an int takes up in binary.
-    // 1 int for rows
-    // 1 int for columns
-    // 1 int for whether wraparound is enabled (1 if yes, 0 if no)
-    // 1 int for the current generation index
-    // A series of ints for the cells of the grid (1 if enabled, 0 if not)
-    // arranged right-to-left, top-to-bottom.
+    // The .cgol file format is described in CgolFormat.java. Files ending in .rle, .cells
+    // or .mc are pattern files from other Life programs instead, handled by PatternIO.java.
 
     public static void save(File targetFile) {
         // If no file has been selected, don't try to save to it.
         if (targetFile == null)
             return;
 
-        // Open a BufferedOutputStream targeting the file.
-        try (FileOutputStream fos = new FileOutputStream(targetFile);
-                BufferedOutputStream bos = new BufferedOutputStream(fos);) {
-
-            // Write all of the specified data to the file.
-            bos.write(rows);
-            bos.write(columns);
-            bos.write(doWraparound ? 0b1 : 0b0);
-            bos.write(generationIndex.get());
-
-            // Loop over the cells, writing their values to the file in sequence.
-            for (ObservableList<Boolean> column : gridData) {
-                for (boolean value : column) {
-                    bos.write(value ? 0b1 : 0b0);
+        // The board can only be read safely from the simulation thread, so it gets copied
+        // over there. Writing the copy out can take a while for a big board, so that
+        // happens on a thread of its own, leaving the simulation to carry on.
+        simulator.submit(() -> {
+            try {
+                Plane plane = simulator.plane;
+                if (PatternIO.isPatternFile(targetFile)) {
+                    // These write straight from a board, so they still happen here. A plane
+                    // gets written as a board just big enough for its living cells.
+                    PatternIO.write(targetFile, plane != null ? plane.toBoard() : simulator.board);
+                    return;
                 }
+                // A .cgol file can hold every living chunk of a plane, along with where
+                // each one is.
+                Snapshot snapshot = plane != null ? new Snapshot(plane)
+                        : new Snapshot(simulator.board, null, null, true);
+                Thread.ofVirtual().name("Save").start(() -> {
+                    try {
+                        CgolFormat.writeAtomically(snapshot, targetFile);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+            } catch (IOException e) {
+                // In theory this should never happen but you never know.
+                e.printStackTrace();
             }
-        } catch (IOException e) {
-            // In theory this should never happen but you never know.
-            e.printStackTrace();
-        }
+        });
     }
 
     public static void load(File targetFile) {
@@ -178,100 +185,132 @@ public class App extends Application {
         if (targetFile == null)
             return;
 
-        // Open a BufferedInputStream pointed at the file.
-        try (FileInputStream fos = new FileInputStream(targetFile);
-                BufferedInputStream bos = new BufferedInputStream(fos);) {
-
-            // Read all of the specified data from the file.
-            rows = bos.read();
-            columns = bos.read();
-            doWraparound = bos.read() == 0b1;
-            initializeGrid();
-            // Have to set generationIndex after initializing the grid, as
-            // that function sets it to 0.
-            generationIndex.set(bos.read());
-
-            // Loop over the grid's cells, reading data from the file to
-            // populate them. They should always be in the right order,
-            // by the specification.
-            for (int xPos = 0; xPos < gridData.size(); xPos++) {
-                ObservableList<Boolean> column = gridData.get(xPos);
-                for (int yPos = 0; yPos < column.size(); yPos++) {
-                    column.set(yPos, bos.read() == 0b1);
-                }
-            }
+        if (PatternIO.isPatternFile(targetFile)) {
+            importPattern(targetFile);
+            return;
+        }
+
+        try {
+            useBoardOrPlane(CgolFormat.readBoardOrPlane(targetFile));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public static void initializeGrid() {
-        // Set some static data (cell pixel size, generation index)
-        cellSize = Math.min(maxHeight / rows, maxWidth / columns);
-        generationIndex.set(0);
-
-        // Clear out the grid and its data, in case it's being reinitialized and already
-        // has values in it.
-        gridData.clear();
-        grid.getChildren().clear();
-        grid.getColumnConstraints().clear();
-        grid.getRowConstraints().clear();
-
-        // Set the size of the grid. I use prefSize and maxSize, which seems to give the
-        // most consistent results.
-        grid.setPrefSize(columns * cellSize, rows * cellSize);
-        grid.setMaxSize(columns * cellSize, rows * cellSize);
-
-        grid.setBackground(Background.fill(gridColour));
-
-        // Assign widths and heights to the cells in the grid. They'll be applied later.
-        ColumnConstraints columnConstraints = new ColumnConstraints();
-        columnConstraints.setPercentWidth(100.0 / columns);
-        RowConstraints rowConstraints = new RowConstraints();
-        rowConstraints.setPercentHeight(100.0 / rows);
-
-        for (int xPos = 0; xPos < columns; xPos++) {
-            // dataRow holds the cells' states, and nodeRow holds their screen components.
-            final ObservableList<Boolean> dataRow = FXCollections.<Boolean>observableArrayList();
-            final ArrayList<Rectangle> nodeRow = new ArrayList<>();
-            gridData.add(dataRow);
-            for (int yPos = 0; yPos < rows; yPos++) {
-                // Create a new rectangle to represent the cell at this x/y position.
-                Rectangle cell = new Rectangle(cellSize, cellSize, deadColour);
-                cell.setStroke(aliveColour);
-                cell.setStrokeWidth(0.25);
-                // These values need to be stored as final so onMouseClicked can access them.
-                final int finalxPos = xPos;
-                final int finalyPos = yPos;
-                cell.setOnMouseClicked(event -> {
-                    ObservableList<Boolean> dataColumn = gridData.get(finalxPos);
-                    dataColumn.set(finalyPos, !dataColumn.get(finalyPos));
-                });
-                grid.add(cell, xPos, yPos);
+    // Start simulating whatever a .cgol file held.
+    static void useBoardOrPlane(Object contents) {
+        if (contents instanceof Plane plane) {
+            usePlane(plane);
+        } else {
+            useBoard((Board) contents);
+        }
+    }
+
+    // Start simulating a plane that's been read in from a file, showing the part of it
+    // where the living cells are (or as much of that as a window can hold).
+    static void usePlane(Plane plane) {
+        unbounded = true;
+        rule = plane.rule;
+        simulator.setPlane(plane, plane.bounds(BoardView.MAX_WINDOW, BoardView.MAX_WINDOW));
+    }
+
+    // Start simulating a board that's been read in from a file.
+    static void useBoard(Board board) {
+        board.stepMode = stepMode;
+
+        // Keep the settings in line with the loaded board, so the properties modal starts
+        // from them.
+        rows = board.height;
+        columns = board.width;
+        topology = board.topology;
+        unbounded = false;
+        rule = board.rule;
 
-                dataRow.add(false);
-                nodeRow.add(cell);
+        // Now that the board is finished, hand it over to be simulated.
+        simulator.setBoard(board);
+    }
+
+    // If the last run didn't close properly, offer to carry on from its newest checkpoint.
+    // Either way, autosaving starts afterwards, so nothing gets written over before the
+    // question has been answered.
+    static void offerResume(Stage stage) {
+        Object checkpoint = autosave.readLatest();
+        if (checkpoint != null) {
+            long generation = checkpoint instanceof Plane plane ? plane.generation : ((Board) checkpoint).generation;
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION,
+                    "The last run didn't close properly. Carry on from where it was autosaved, at generation "
+                            + generation + "?",
+                    ButtonType.YES, ButtonType.NO);
+            alert.initOwner(stage);
+            alert.setTitle("Resume");
+            alert.setHeaderText(null);
+            if (alert.showAndWait().orElse(ButtonType.NO) == ButtonType.YES) {
+                useBoardOrPlane(checkpoint);
+            } else {
+                autosave.clear();
             }
+        }
+        autosave.setInterval(autosaveSeconds);
+    }
 
-            // Update the node row whenever the data row changes.
-            dataRow.addListener((ListChangeListener<Boolean>) (c) -> {
-                while (c.next()) {
-                    assert c.wasUpdated();
-                    for (int i = c.getFrom(); i < c.getTo(); ++i) {
-                        nodeRow.get(i).setFill(dataRow.get(i) ? aliveColour : deadColour);
-                    }
+    // Draw a pattern file onto the current board, with its top left corner at the top left
+    // of whatever part of the board is on screen.
+    public static void importPattern(File patternFile) {
+        int planeX = (int) Math.floor(-view.panX / view.zoom);
+        int planeY = (int) Math.floor(-view.panY / view.zoom);
+        int offsetX = Math.max(0, planeX);
+        int offsetY = Math.max(0, planeY);
+        simulator.submit(() -> {
+            try {
+                Rule patternRule;
+                if (simulator.plane != null) {
+                    // A plane has no edges, so the whole pattern goes straight onto it.
+                    // It keeps its own rule if the pattern's isn't one HashLife can run.
+                    PatternIO.read(patternFile, simulator.plane, planeX, planeY);
+                    patternRule = simulator.plane.rule;
+                } else {
+                    PatternIO.read(patternFile, simulator.board, offsetX, offsetY);
+                    patternRule = simulator.board.rule;
                 }
-            });
+                // The file might have changed the rule, so keep the properties modal in
+                // line with it.
+                javafx.application.Platform.runLater(() -> rule = patternRule);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
 
-            // This is where the column constraints get applied.
-            grid.getColumnConstraints().add(columnConstraints);
+    public static void initializeGrid() {
+        // Start over with an empty board of the right size. The display will notice the
+        // new board when its first snapshot comes through.
+        if (unbounded) {
+            simulator.setPlane(newPlane(), startingWindow());
+        } else {
+            simulator.setBoard(newBoard());
         }
+    }
 
-        // A separate loop for row constraints, to make sure the correct number are
-        // added.
-        for (int yPos = 0; yPos < rows; yPos++) {
-            grid.getRowConstraints().add(rowConstraints);
-        }
+    // An empty plane, using the current rule.
+    static Plane newPlane() {
+        Plane plane = new Plane();
+        plane.rule = rule;
+        return plane;
+    }
+
+    // The part of a plane to show first: the rows and columns from (0, 0), rounded out to
+    // whole chunks.
+    static Plane.Window startingWindow() {
+        int chunk = Plane.CHUNK_SIZE;
+        return new Plane.Window(0, 0, (columns + chunk - 1) / chunk * chunk, (rows + chunk - 1) / chunk * chunk);
+    }
+
+    // An empty board, using the current settings.
+    static Board newBoard() {
+        Board board = new Board(columns, rows, topology);
+        board.stepMode = stepMode;
+        board.rule = rule;
+        return board;
     }
 
     public void showPropertiesModal(Stage parentStage) {
@@ -310,10 +349,67 @@ public class App extends Application {
         }));
         height.setValue(rows);
 
-        // Make a checkbox for whether the grid should allow cells to wrap around its
-        // edges.
-        CheckBox wraparoundCheckBox = new CheckBox("Wraparound?");
-        wraparoundCheckBox.setSelected(doWraparound);
+        // Make a dropdown for what the grid should do with cells at its edges.
+        Label edgesText = new Label("Edges: ");
+        ComboBox<Topology> edgesBox = new ComboBox<>(FXCollections.observableArrayList(Topology.values()));
+        edgesBox.setValue(topology);
+        HBox edgesPanel = new HBox(edgesText, edgesBox);
+        edgesPanel.setAlignment(Pos.CENTER_LEFT);
+
+        // Or there can be no edges at all, in which case the size is just how much gets
+        // randomized and shown to start with.
+        CheckBox unboundedCheckBox = new CheckBox("Unbounded (no edges)");
+        unboundedCheckBox.selectedProperty().addListener((ChangeListener<Boolean>) ((_, _, selected) -> {
+            edgesBox.setDisable(selected);
+        }));
+        unboundedCheckBox.setSelected(unbounded);
+
+        // And one for how the simulation should use the CPU.
+        Label stepModeText = new Label("Stepping: ");
+        ComboBox<StepMode> stepModeBox = new ComboBox<>(FXCollections.observableArrayList(StepMode.values()));
+        stepModeBox.setValue(stepMode);
+        HBox stepModePanel = new HBox(stepModeText, stepModeBox);
+        stepModePanel.setAlignment(Pos.CENTER_LEFT);
+
+        // And one for the rule. The well known ones are in the list, but any rulestring
+        // can be typed in too.
+        Label ruleText = new Label("Rule: ");
+        ComboBox<String> ruleBox = new ComboBox<>(FXCollections.observableArrayList(Rule.PRESETS.keySet()));
+        ruleBox.setEditable(true);
+        ruleBox.setValue(rule.name);
+        HBox rulePanel = new HBox(ruleText, ruleBox);
+        rulePanel.setAlignment(Pos.CENTER_LEFT);
+        Label ruleError = new Label();
+        ruleError.setTextFill(Color.DARKRED);
+        ruleError.setWrapText(true);
+
+        // And a slider for how much memory to keep history in (0 turns it off).
+        Label historyText = new Label("Rewind memory (MB): ");
+        Label historyValue = new Label("##");
+        HBox historyLabel = new HBox(historyText, historyValue);
+        Slider history = new Slider(0, 1024, 0);
+        history.setShowTickLabels(true);
+        history.setShowTickMarks(true);
+        history.setMajorTickUnit(256);
+        history.setMinorTickCount(1);
+        history.valueProperty().addListener((ChangeListener<Number>) ((_, _, endValue) -> {
+            historyValue.setText(String.valueOf(endValue.intValue()));
+        }));
+        history.setValue(historyMemory / (1024 * 1024));
+
+        // And one for how often to autosave (0 turns it off).
+        Label autosaveText = new Label("Autosave every (s): ");
+        Label autosaveValue = new Label("##");
+        HBox autosaveLabel = new HBox(autosaveText, autosaveValue);
+        Slider autosaveSlider = new Slider(0, 600, 0);
+        autosaveSlider.setShowTickLabels(true);
+        autosaveSlider.setShowTickMarks(true);
+        autosaveSlider.setMajorTickUnit(120);
+        autosaveSlider.setMinorTickCount(1);
+        autosaveSlider.valueProperty().addListener((ChangeListener<Number>) ((_, _, endValue) -> {
+            autosaveValue.setText(String.valueOf(endValue.intValue()));
+        }));
+        autosaveSlider.setValue(autosaveSeconds);
 
         CheckBox randomizeCheckbox = new CheckBox("Randomize cells?");
 
@@ -324,18 +420,41 @@ public class App extends Application {
             // These need to be converted to ints, as their standard value is a double. This
             // is always file to do, though, since they're restricted to whole values
             // anyway.
+            // Check the rule first, so a typo doesn't throw away the board.
+            Rule newRule;
+            try {
+                newRule = Rule.parse(ruleBox.getEditor().getText());
+            } catch (IllegalArgumentException e) {
+                ruleError.setText(e.getMessage());
+                return;
+            }
+            if (unboundedCheckBox.isSelected() && !HashLife.supportsRule(newRule)) {
+                ruleError.setText("Unbounded only works with two-state rules without B0");
+                return;
+            }
+            rule = newRule;
             columns = (int) width.getValue();
             rows = (int) height.getValue();
-            doWraparound = wraparoundCheckBox.isSelected();
-            initializeGrid();
-            if (randomizeCheckbox.isSelected()) {
-                Random rand = new Random();
-                for (ObservableList<Boolean> row : gridData) {
-                    for (int i = 0; i < row.size(); i++) {
-                        // The 0.25 represents the percentage of cells that are alive
-                        row.set(i, rand.nextDouble() < 0.25);
-                    }
+            topology = edgesBox.getValue();
+            unbounded = unboundedCheckBox.isSelected();
+            stepMode = stepModeBox.getValue();
+            historyMemory = (long) history.getValue() * 1024 * 1024;
+            simulator.setHistoryBudget(historyMemory);
+            autosaveSeconds = (int) autosaveSlider.getValue();
+            autosave.setInterval(autosaveSeconds);
+            if (unbounded) {
+                Plane plane = newPlane();
+                if (randomizeCheckbox.isSelected()) {
+                    plane.randomize(new Random(), 0.25, columns, rows);
+                }
+                simulator.setPlane(plane, startingWindow());
+            } else {
+                Board board = newBoard();
+                if (randomizeCheckbox.isSelected()) {
+                    // The 0.25 represents the percentage of cells that are alive
+                    board.randomize(new Random(), 0.25);
                 }
+                simulator.setBoard(board);
             }
             modalStage.close();
         });
@@ -350,8 +469,9 @@ public class App extends Application {
         HBox buttonPanel = new HBox(closeButton, cancelButton);
         buttonPanel.setAlignment(Pos.BOTTOM_CENTER);
 
-        VBox modalContents = new VBox(widthLabel, width, heightLabel, height, wraparoundCheckBox, randomizeCheckbox,
-                buttonPanel);
+        VBox modalContents = new VBox(widthLabel, width, heightLabel, height, edgesPanel, unboundedCheckBox,
+                stepModePanel, rulePanel, ruleError, historyLabel, history, autosaveLabel, autosaveSlider,
+                randomizeCheckbox, buttonPanel);
         modalContents.setAlignment(Pos.BOTTOM_CENTER);
         modalContents.setPadding(new Insets(5));
         modalContents.setMinWidth(250);
@@ -363,23 +483,35 @@ public class App extends Application {
 
     @Override
     public void start(Stage stage) {
-        // Runs the tick function every second (or less, if its rate is increased above
-        // 1)
-        Timeline tickClock = new Timeline(new KeyFrame(Duration.millis(1000), ev -> tick()));
-        tickClock.setCycleCount(Animation.INDEFINITE);
-        tickClock.setRate(0);
+        // Start the simulation thread. It's running from the start, but at a rate of 0,
+        // so nothing happens until the tps slider is moved.
+        simulator = new Simulator(newBoard());
+        simulator.start();
+        simulator.setRunning(true);
+        autosave = new Autosave(simulator, Autosave.DEFAULT_DIRECTORY);
 
         // Create buttons for playing, pausing, and stepping through individual
         // generations.
         Paint playImage = new ImagePattern(new Image(playImageName));
         Rectangle play = new Rectangle(32, 32, playImage);
-        play.setOnMouseClicked(ev -> tickClock.play());
+        play.setOnMouseClicked(ev -> simulator.setRunning(true));
         Paint pauseImage = new ImagePattern(new Image(pauseImageName));
         Rectangle pause = new Rectangle(32, 32, pauseImage);
-        pause.setOnMouseClicked(ev -> tickClock.stop());
+        pause.setOnMouseClicked(ev -> {
+            simulator.setRunning(false);
+            simulator.cancelJump();
+        });
         Paint stepImage = new ImagePattern(new Image(stepImageName));
         Rectangle step = new Rectangle(32, 32, stepImage);
         step.setOnMouseClicked(ev -> tick());
+        // Stepping back is the same button turned around. It pauses first, since
+        // otherwise the board would just carry on forwards again.
+        Rectangle stepBack = new Rectangle(32, 32, stepImage);
+        stepBack.setRotate(180);
+        stepBack.setOnMouseClicked(ev -> {
+            simulator.setRunning(false);
+            simulator.stepBack();
+        });
 
         // Create a slider for controlling automatic steps. It's initially 0.
         Label tps_title = new Label("Ticks per second: ");
@@ -390,19 +522,36 @@ public class App extends Application {
         tps.setMajorTickUnit(10);
         tps.setMinorTickCount(1);
 
-        // When the tps slider is changed, update the tickClock and the tps display.
+        // The simulation can also be let loose to run as fast as it possibly can.
+        CheckBox maxRateCheckBox = new CheckBox("Max");
+
+        // When the tps slider is changed, update the simulator and the tps display.
         tps.valueProperty().addListener((ChangeListener<Number>) ((_, _, endValue) -> {
-            tickClock.setRate(endValue.doubleValue());
+            if (!maxRateCheckBox.isSelected()) {
+                simulator.setRate(endValue.doubleValue());
+            }
             tps_count.setText(String.valueOf(endValue.intValue()));
         }));
+        maxRateCheckBox.selectedProperty().addListener((ChangeListener<Boolean>) ((_, _, selected) -> {
+            simulator.setRate(selected ? Double.POSITIVE_INFINITY : tps.getValue());
+            tps.setDisable(selected);
+        }));
+
+        // Settled boards just repeat themselves forever, so there's the option to stop
+        // once that happens.
+        CheckBox pauseOnCycleCheckBox = new CheckBox("Pause when it starts repeating");
+        pauseOnCycleCheckBox.selectedProperty().addListener((ChangeListener<Boolean>) ((_, _, selected) -> {
+            simulator.pauseOnCycle = selected;
+        }));
 
         // Wrap the tps label and slider in a box.
         HBox tps_label = new HBox(tps_title, tps_count);
-        VBox tps_box = new VBox(tps_label, tps);
+        HBox tps_row = new HBox(5, tps, maxRateCheckBox);
+        VBox tps_box = new VBox(tps_label, tps_row, pauseOnCycleCheckBox);
         tps_label.setAlignment(Pos.TOP_CENTER);
 
         // Group the buttons and tps controls into a box as well.
-        HBox controls = new HBox(10, play, pause, step, tps_box);
+        HBox controls = new HBox(10, play, pause, stepBack, step, tps_box);
         HBox.setHgrow(controls, Priority.ALWAYS);
 
         // Create a generation index display, to go on the other side of the screen.
@@ -411,25 +560,131 @@ public class App extends Application {
         // This ensures that the generation index always matches the simulator's value
         // for it.
         generationIndex.addListener((ChangeListener<Number>) ((_, _, endValue) -> {
-            generationDisplay.setText(String.valueOf(endValue.intValue()));
+            generationDisplay.setText(String.valueOf(endValue.longValue()));
         }));
-        HBox generationInfo = new HBox(generationTitle, generationDisplay);
+        HBox generationLine = new HBox(generationTitle, generationDisplay);
+        generationLine.setAlignment(Pos.TOP_RIGHT);
+
+        // Underneath, show how fast the simulation and the display are actually going.
+        Label rateDisplay = new Label("0 gen/s, 0 fps");
+        // And how many cells are alive, and whether the board has settled into repeating
+        // itself.
+        Label populationDisplay = new Label("0 alive");
+        Label cycleDisplay = new Label("");
+        VBox generationInfo = new VBox(generationLine, rateDisplay, populationDisplay, cycleDisplay);
         generationInfo.setAlignment(Pos.TOP_RIGHT);
         HBox.setHgrow(generationInfo, Priority.ALWAYS);
 
         // Make a top bar for the simulation controls and generation info.
         HBox topBar = new HBox(10, controls, generationInfo);
 
-        // Run the necessary code to set up the grid.
-        initializeGrid();
+        // Run the necessary code to set up the grid. Clicking a cell flips it between
+        // alive and dead.
+        view = new BoardView(maxWidth, maxHeight, deadColour, aliveColour, gridColour, borderColour);
+        view.snapshotSource = simulator::takeSnapshot;
+        view.metrics = simulator.metrics;
+        simulator.metrics.register();
+        view.onWindowChanged = simulator::setWindow;
+        view.onCellClicked = (xPos, yPos) -> simulator.submit(() -> {
+            if (simulator.plane != null) {
+                simulator.plane.toggle(xPos, yPos);
+                return;
+            }
+            // The board might have been swapped for a smaller one since the click's
+            // snapshot was drawn.
+            Board board = simulator.board;
+            if (xPos < board.width && yPos < board.height) {
+                board.toggle(xPos, yPos);
+            }
+        });
+
+        // A slider for scrubbing back and forth through the generations the history
+        // remembers. Moving it pauses the board and puts it back how it was then.
+        // followingBoard is set while the slider is being moved to match the board, so
+        // that doesn't count.
+        Slider timeline = new Slider(0, 0, 0);
+        boolean[] followingBoard = { false };
+        timeline.valueProperty().addListener((ChangeListener<Number>) ((_, _, endValue) -> {
+            if (!followingBoard[0]) {
+                simulator.setRunning(false);
+                simulator.seek(endValue.longValue());
+            }
+        }));
+        HBox timelineBox = new HBox(5, new Label("History:"), timeline);
+        timelineBox.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(timeline, Priority.ALWAYS);
+        HBox.setHgrow(timelineBox, Priority.ALWAYS);
+
+        // Make a text box and button for jumping ahead many generations at once. While a
+        // jump is being stepped through, the button stops it instead.
+        TextField jumpField = new TextField("1000000");
+        jumpField.setPrefColumnCount(10);
+        Button jumpButton = new Button("Jump");
+        jumpButton.setOnAction(ev -> {
+            if (simulator.jumpRemaining > 0) {
+                simulator.cancelJump();
+                return;
+            }
+            long generations;
+            try {
+                generations = Long.parseLong(jumpField.getText().trim());
+            } catch (NumberFormatException _) {
+                generations = 0;
+            }
+            // Generations only go forwards, so anything that isn't a positive number
+            // leaves nothing to jump by.
+            if (generations > 0) {
+                jumpGenerations(generations);
+            } else {
+                jumpField.setText("0");
+            }
+        });
+
+        // Every time a new snapshot makes it onto the screen, bring the generation
+        // display up to date, and once a second work out the generation and frame rates.
+        long[] rateStart = { System.nanoTime(), 0, 0 }; // time, generation, frames
+        view.onSnapshotShown = snapshot -> {
+            generationIndex.set(snapshot.generation);
+            // Keep the timeline covering whatever the history remembers, and following
+            // the board, unless someone's dragging it.
+            followingBoard[0] = true;
+            timeline.setDisable(snapshot.source instanceof Plane);
+            timeline.setMin(simulator.history.oldestGeneration);
+            timeline.setMax(simulator.history.newestGeneration);
+            if (!timeline.isValueChanging()) {
+                timeline.setValue(snapshot.generation);
+            }
+            followingBoard[0] = false;
+            populationDisplay.setText(snapshot.population + " alive");
+            jumpButton.setText(simulator.jumpRemaining > 0 ? "Stop" : "Jump");
+            CycleDetector.Cycle cycle = simulator.cycle;
+            if (cycle == null) {
+                cycleDisplay.setText("");
+            } else if (cycle.period() == 1) {
+                cycleDisplay.setText("Still since generation " + cycle.start());
+            } else {
+                cycleDisplay.setText("Repeating every " + cycle.period() + " since generation " + cycle.start());
+            }
+            rateStart[2]++;
+            long now = System.nanoTime();
+            if (now - rateStart[0] >= 1_000_000_000L) {
+                double seconds = (now - rateStart[0]) / 1e9;
+                double generationRate = Math.max(0, snapshot.generation - rateStart[1]) / seconds;
+                rateDisplay.setText(String.format("%.0f gen/s, %.0f fps", generationRate, rateStart[2] / seconds));
+                rateStart[0] = now;
+                rateStart[1] = snapshot.generation;
+                rateStart[2] = 0;
+            }
+        };
 
         // Set up the extension options for saving/loading files.
         FileChooser.ExtensionFilter ext = new ExtensionFilter("CGoL Files", "*.cgol");
+        FileChooser.ExtensionFilter patternExt = new ExtensionFilter("Pattern Files", "*.rle", "*.cells", "*.mc");
 
         // Make a button to save the current grid.
         FileChooser saveChooser = new FileChooser();
         saveChooser.setTitle("Save File");
-        saveChooser.getExtensionFilters().add(ext);
+        saveChooser.getExtensionFilters().addAll(ext, patternExt);
         Paint saveImage = new ImagePattern(new Image(saveImageName));
         Rectangle saveButton = new Rectangle(32, 32, saveImage);
         saveButton.setOnMouseClicked(ev -> {
@@ -440,7 +695,7 @@ public class App extends Application {
         // Make a button to load a grid from a file.
         FileChooser loadChooser = new FileChooser();
         loadChooser.setTitle("Load File");
-        loadChooser.getExtensionFilters().add(ext);
+        loadChooser.getExtensionFilters().addAll(ext, patternExt);
         Paint loadImage = new ImagePattern(new Image(loadImageName));
         Rectangle loadButton = new Rectangle(32, 32, loadImage);
         loadButton.setOnMouseClicked(ev -> {
@@ -448,31 +703,49 @@ public class App extends Application {
             load(loadLocation);
         });
 
-        // Make a button to edit the properties (size, wraparound) of the grid.
+        // Make a button to edit the properties (size, edges) of the grid.
         Paint editImage = new ImagePattern(new Image(editImageName));
         Rectangle editButton = new Rectangle(32, 32, editImage);
         editButton.setOnMouseClicked(ev -> {
-            tickClock.stop();
+            boolean wasRunning = simulator.running;
+            simulator.setRunning(false);
             showPropertiesModal(stage);
-            tickClock.play();
+            simulator.setRunning(wasRunning);
         });
 
+        // Timings and such can be shown over the top of the board, for working out what's
+        // slowing things down.
+        CheckBox statsCheckBox = new CheckBox("Show stats");
+        statsCheckBox.selectedProperty().addListener((ChangeListener<Boolean>) ((_, _, selected) -> {
+            view.setStatsVisible(selected);
+        }));
+
+        HBox jumpBox = new HBox(5, statsCheckBox, jumpField, jumpButton);
+        jumpBox.setAlignment(Pos.CENTER_RIGHT);
+        HBox.setHgrow(jumpBox, Priority.ALWAYS);
+
         // Make a bottom bar to hold all of the bottom buttons.
-        HBox bottomBar = new HBox(saveButton, loadButton, editButton);
+        HBox bottomBar = new HBox(saveButton, loadButton, editButton, timelineBox, jumpBox);
         bottomBar.setAlignment(Pos.BOTTOM_LEFT);
         VBox.setVgrow(bottomBar, Priority.ALWAYS);
 
         // Make a container that can hold the whole screen's components.
-        VBox globalContainer = new VBox(10, topBar, grid, bottomBar);
+        VBox globalContainer = new VBox(10, topBar, view, bottomBar);
         globalContainer.setAlignment(Pos.TOP_CENTER);
         globalContainer.setPadding(new Insets(10));
 
-        // Initialize the scene and stage, set the tick clock running (at a rate of 0 to
-        // begin with), and start the program.
+        // Initialize the scene and stage, and start the program.
         Scene scene = new Scene(globalContainer, screenWidth, screenHeight, backgroundColour);
         stage.setTitle("Game of Life Simulator");
         stage.setScene(scene);
-        tickClock.play();
         stage.show();
+
+        offerResume(stage);
+    }
+
+    @Override
+    public void stop() {
+        // Closing normally, so there's nothing to resume next time.
+        autosave.close();
     }
 }
\ No newline at end of file
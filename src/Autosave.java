@@ -0,0 +1,194 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+Saves whatever's being simulated every so often in the background, so that a long run isn't
+lost if the program (or the computer) crashes, and can be carried on next time from the
+generation it got to.
+
+A checkpoint comes in two halves. Copying the board has to happen on the simulation thread,
+since that's the only one allowed to look at it, but that's just a Snapshot: one bulk copy
+of the cells into an array kept for the purpose, which takes a small fraction of the time a
+step does (about a millisecond for 8192x8192), plus a copy of the dying cells' states under
+rules that have them, so a resumed run carries on exactly as it would have. Encoding it and
+writing it to disk is the slow half, and that happens afterwards on the autosave thread,
+while the simulation carries on without it. If a checkpoint is still being written when the
+next one is due, the next one is skipped, rather than piling up copies of the board in
+memory. Boards that haven't changed since the last checkpoint aren't saved again either.
+
+Checkpoints take turns between a few files (autosave-0.cgol, autosave-1.cgol and so on),
+always replacing the oldest, so the ones before the newest are still around if something
+goes wrong with it. Each is written with CgolFormat.writeAtomically, so a crash partway through
+writing one never leaves a torn checkpoint behind. The generation index is in the .cgol
+header, so a resumed run carries on counting from the right place.
+
+When the program closes normally the checkpoints are thrown away, so if there are any at
+startup, the last run must not have finished properly.
+*/
+
+public class Autosave {
+    static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".cgol-autosave");
+    static final int DEFAULT_INTERVAL = 60;
+    static final int FILES = 3;
+    static final String PREFIX = "autosave-";
+
+    final Simulator simulator;
+    final File directory;
+
+    // Keeps time and does the writing, one checkpoint at a time.
+    final ScheduledExecutorService thread = Executors
+            .newSingleThreadScheduledExecutor(Thread.ofPlatform().name("Autosave").daemon().factory());
+    ScheduledFuture<?> timer;
+
+    // Set from when a checkpoint is asked for until it's been written (or given up on).
+    final AtomicBoolean busy = new AtomicBoolean(false);
+
+    // What the last checkpoint was of, so the same thing isn't saved twice. Only touched on
+    // the simulation thread.
+    Object lastSource = null;
+    long lastGeneration = -1;
+    long lastModifications = -1;
+
+    // Which file the next checkpoint goes in. Only touched on the autosave thread.
+    int nextFile;
+
+    // The cells array of the last checkpoint, to copy the next one into. Only one
+    // checkpoint is ever in progress at once, so this is never in use by the time the next
+    // one is copied, and busy going back to false makes sure the simulation thread sees it.
+    long[] spare = null;
+
+    public Autosave(Simulator simulator, File directory) {
+        this.simulator = simulator;
+        this.directory = directory;
+        // Start with the oldest file (or one that isn't there at all), so a checkpoint the
+        // last run left behind isn't the first thing to go.
+        for (int i = 1; i < FILES; i++) {
+            if (file(i).lastModified() < file(nextFile).lastModified()) {
+                nextFile = i;
+            }
+        }
+    }
+
+    private File file(int index) {
+        return new File(directory, PREFIX + index + ".cgol");
+    }
+
+    // Checkpoint every so many seconds, or never if it's 0.
+    public synchronized void setInterval(int seconds) {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        timer = seconds > 0 ? thread.scheduleWithFixedDelay(this::checkpoint, seconds, seconds, TimeUnit.SECONDS)
+                : null;
+    }
+
+    // Ask the simulation thread for a copy of the board, unless the last one is still being
+    // written.
+    void checkpoint() {
+        if (busy.compareAndSet(false, true)) {
+            simulator.submit(this::capture);
+        }
+    }
+
+    // Copy the board and send it off to be written. Only call this on the simulation thread.
+    void capture() {
+        Snapshot snapshot;
+        try {
+            snapshot = copy();
+        } catch (RuntimeException e) {
+            busy.set(false);
+            throw e;
+        }
+        if (snapshot == null) {
+            busy.set(false);
+            return;
+        }
+        try {
+            thread.execute(() -> write(snapshot));
+        } catch (RejectedExecutionException e) {
+            // Closed while the copy was being made.
+            busy.set(false);
+        }
+    }
+
+    // A copy of whatever's being simulated, or null if it's the same as last time.
+    Snapshot copy() {
+        Plane plane = simulator.plane;
+        Board board = simulator.board;
+        Object source = plane != null ? plane : board;
+        long generation = plane != null ? plane.generation : board.generation;
+        long modifications = plane != null ? plane.modifications : board.modifications;
+        if (source == lastSource && generation == lastGeneration && modifications == lastModifications) {
+            return null;
+        }
+        lastSource = source;
+        lastGeneration = generation;
+        lastModifications = modifications;
+        // A plane gets saved as its living chunks, the same as App.save does, so it comes
+        // back as a plane in the same place. That's a copy of each chunk out of the HashMap
+        // they're kept in, so it's as much work as the plane has living chunks, however far
+        // apart they've drifted.
+        return plane != null ? new Snapshot(plane) : new Snapshot(board, null, spare, true);
+    }
+
+    void write(Snapshot snapshot) {
+        try {
+            Files.createDirectories(directory.toPath());
+            CgolFormat.writeAtomically(snapshot, file(nextFile));
+            nextFile = (nextFile + 1) % FILES;
+            spare = snapshot.cells;
+        } catch (IOException e) {
+            e.printStackTrace();
+            // Try again next time, even if nothing's changed by then.
+            simulator.submit(() -> lastSource = null);
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    // The newest checkpoint that can actually be read, as a Board or a Plane, or null if
+    // there isn't one.
+    public Object readLatest() {
+        File[] files = directory.listFiles((_, name) -> name.startsWith(PREFIX) && name.endsWith(".cgol"));
+        if (files == null) {
+            return null;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        for (File file : files) {
+            try {
+                return CgolFormat.readBoardOrPlane(file);
+            } catch (IOException e) {
+                // Something other than a crash has happened to it, since a crash can't
+                // leave a half-written one. Either way, the next newest will have to do.
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    // Throw away every checkpoint (and any temporary file left over from writing one).
+    public void clear() {
+        File[] files = directory.listFiles((_, name) -> name.startsWith(PREFIX));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    // Stop checkpointing, and throw away the checkpoints, for when the program is closing
+    // normally. A checkpoint that's partway through being written is finished first, so
+    // it can't turn up again afterwards.
+    public void close() {
+        thread.shutdown();
+        try {
+            thread.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        clear();
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+Runs simulations without any window, for running lots of them at once on machines that
+don't have a display (or JavaFX) at all.
+
+Boards come from .cgol or pattern files given on the command line, and/or are filled in
+randomly like the "Randomize cells?" option does, with as many densities and seeds as you
+like. Every board is stepped on its own virtual thread, so hundreds of them can run at once
+and keep every core busy. As each one runs, its population is written out to a CSV file every
+so often (and optionally a .cgol snapshot too), and once they're all done a summary of every
+board is printed and saved. Boards that settle into repeating themselves are skipped ahead
+instead of being stepped all the way, and the summary says what period they settled into
+and when.
+
+Run it with batch.ps1 (or batch.sh on Linux). Running it with no arguments lists the options.
+*/
+
+public class BatchRunner {
+    static final String USAGE = """
+            Usage: BatchRunner [options] [board files...]
+              --generations N     How many generations to run each board for (default 1000)
+              --every N           Write stats (and snapshots) every N generations (default: only at the end)
+              --snapshots         Also save a .cgol snapshot whenever stats are written
+              --out DIRECTORY     Where to write everything (default batch-output)
+              --random WxH        Also run random boards of this size
+              --densities D,D,... Densities for the random boards (default 0.25)
+              --seeds N           How many random boards (seeds 0 to N-1) per density (default 1)
+              --size WxH          Board size for pattern files (.rle, .cells, .mc), which get drawn
+                                  at the top left (default 1024x1024)
+              --edges NAME        Edges for random boards and pattern files: dead, torus,
+                                  klein_bottle or mirror (default torus)
+              --rule RULE         Rule for random boards and pattern files, like B36/S23 (default: the
+                                  pattern file's own rule if it has one, otherwise B3/S23)
+              --mode NAME         How to step: serial, parallel, sparse or vector (default serial)
+            """;
+
+    long generations = 1000;
+    long every = 0;
+    boolean snapshots = false;
+    File outputDirectory = new File("batch-output");
+    int[] randomSize = null;
+    List<Double> densities = new ArrayList<>(List.of(0.25));
+    int seeds = 1;
+    int[] patternSize = { 1024, 1024 };
+    Topology topology = Topology.TORUS;
+    StepMode stepMode = StepMode.SERIAL;
+    // Null unless --rule was given, so pattern files can bring their own.
+    Rule rule = null;
+    List<File> inputs = new ArrayList<>();
+
+    // One board to run: what to call its output, and how to make it.
+    record Job(String name, Callable<Board> source) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        BatchRunner runner = new BatchRunner();
+        try {
+            runner.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(1);
+        }
+        runner.runAll();
+    }
+
+    void parseArguments(String[] args) {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Nothing to run.");
+        }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                inputs.add(new File(arg));
+                continue;
+            }
+            if (arg.equals("--snapshots")) {
+                snapshots = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(arg + " needs a value.");
+            }
+            String value = args[++i];
+            try {
+                switch (arg) {
+                    case "--generations" -> generations = Long.parseLong(value);
+                    case "--every" -> every = Long.parseLong(value);
+                    case "--out" -> outputDirectory = new File(value);
+                    case "--random" -> randomSize = parseSize(value);
+                    case "--densities" -> {
+                        densities.clear();
+                        for (String density : value.split(",")) {
+                            densities.add(Double.parseDouble(density));
+                        }
+                    }
+                    case "--seeds" -> seeds = Integer.parseInt(value);
+                    case "--size" -> patternSize = parseSize(value);
+                    case "--edges" -> topology = Topology.valueOf(value.toUpperCase());
+                    case "--mode" -> stepMode = StepMode.valueOf(value.toUpperCase());
+                    case "--rule" -> rule = Rule.parse(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+        if (inputs.isEmpty() && randomSize == null) {
+            throw new IllegalArgumentException("Nothing to run.");
+        }
+    }
+
+    static int[] parseSize(String value) {
+        String[] parts = value.toLowerCase().split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Sizes look like 1024x768, not " + value);
+        }
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    List<Job> jobs() {
+        List<Job> jobs = new ArrayList<>();
+        // Names already given out (in lower case, since that's all it takes for file names
+        // to clash on Windows), starting with the one the summary is saved under.
+        Set<String> used = new HashSet<>(Set.of("summary"));
+        for (File input : inputs) {
+            String name = uniqueName(input.getName().replaceFirst("\\.[^.]*$", ""), used);
+            jobs.add(new Job(name, () -> {
+                if (!PatternIO.isPatternFile(input)) {
+                    return CgolFormat.read(input);
+                }
+                Board board = new Board(patternSize[0], patternSize[1], topology);
+                board.rule = rule != null ? rule : Rule.CONWAY;
+                PatternIO.read(input, board, 0, 0);
+                if (rule != null) {
+                    board.rule = rule;
+                }
+                return board;
+            }));
+        }
+        if (randomSize != null) {
+            for (double density : densities) {
+                for (int seed = 0; seed < seeds; seed++) {
+                    long boardSeed = seed;
+                    jobs.add(new Job(uniqueName("random-" + density + "-" + seed, used), () -> {
+                        Board board = new Board(randomSize[0], randomSize[1], topology);
+                        board.rule = rule != null ? rule : Rule.CONWAY;
+                        board.randomize(new Random(boardSeed), density);
+                        return board;
+                    }));
+                }
+            }
+        }
+        return jobs;
+    }
+
+    // A name for a job's output files that no other job has. Files from different folders
+    // (like a/foo.cgol and b/foo.rle) can have the same name, so later ones get a number on
+    // the end.
+    static String uniqueName(String name, Set<String> used) {
+        String unique = name;
+        for (int number = 2; !used.add(unique.toLowerCase(Locale.ROOT)); number++) {
+            unique = name + "-" + number;
+        }
+        return unique;
+    }
+
+    void runAll() throws IOException, InterruptedException {
+        outputDirectory.mkdirs();
+        List<Job> jobs = jobs();
+        System.out.println("Running " + jobs.size() + " boards for " + generations + " generations each");
+
+        // Each board gets a virtual thread of its own. They're cheap enough to have hundreds
+        // of, and between them they keep all of the cores busy.
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Job job : jobs) {
+                results.add(executor.submit(() -> run(job)));
+            }
+        }
+
+        try (PrintWriter summary = new PrintWriter(new FileWriter(new File(outputDirectory, "summary.csv")))) {
+            String header = "name,width,height,generation,population,seconds,generations per second,period,cycle start";
+            summary.println(header);
+            System.out.println(header);
+            for (int i = 0; i < jobs.size(); i++) {
+                String line;
+                try {
+                    line = results.get(i).get();
+                } catch (ExecutionException e) {
+                    // One broken board shouldn't lose the results of all the others.
+                    e.getCause().printStackTrace();
+                    line = jobs.get(i).name() + ",failed";
+                }
+                summary.println(line);
+                System.out.println(line);
+            }
+        }
+    }
+
+    // Run one board all the way through, returning its line of the summary.
+    String run(Job job) throws Exception {
+        Board board = job.source().call();
+        board.stepMode = stepMode;
+        long start = System.nanoTime();
+        long startGeneration = board.generation;
+        long endGeneration = startGeneration + generations;
+
+        // Lots of random boards settle down into still lifes and oscillators long before
+        // they're finished, so keep an eye out for that.
+        CycleDetector cycles = new CycleDetector(CycleDetector.DEFAULT_HISTORY);
+        cycles.restart(board);
+
+        try (PrintWriter stats = new PrintWriter(new FileWriter(new File(outputDirectory, job.name() + ".csv")))) {
+            stats.println("generation,population,births,deaths,seconds");
+            record(job, board, stats, start);
+            while (board.generation < endGeneration) {
+                long done = board.generation - startGeneration;
+                long nextRecord = every > 0 ? Math.min(endGeneration, board.generation + every - done % every)
+                        : endGeneration;
+                // Once the board is repeating itself, skip as close to the next time
+                // anything gets written as whole periods allow. Then step exactly like
+                // tick() does, minus handing the result to the display.
+                if (cycles.skipPeriods(board, nextRecord - board.generation) > 0) {
+                    board.step();
+                    cycles.afterStep(board);
+                }
+                if (board.generation == nextRecord) {
+                    record(job, board, stats, start);
+                }
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        CycleDetector.Cycle cycle = cycles.current(board);
+        return job.name() + "," + board.width + "," + board.height + "," + board.generation + ","
+                + board.population() + "," + String.format(Locale.ROOT, "%.3f", seconds) + ","
+                + String.format(Locale.ROOT, "%.1f", generations / seconds) + ","
+                + (cycle == null ? "," : cycle.period() + "," + cycle.start());
+    }
+
+    void record(Job job, Board board, PrintWriter stats, long start) throws IOException {
+        stats.println(board.generation + "," + board.population() + "," + board.births + "," + board.deaths + ","
+                + String.format(Locale.ROOT, "%.3f", (System.nanoTime() - start) / 1e9));
+        if (snapshots) {
+            File file = new File(outputDirectory, job.name() + "-" + board.generation + ".cgol");
+            CgolFormat.write(new Snapshot(board, null, null, true), file);
+        }
+    }
+}
@@ -0,0 +1,739 @@
+/*
+The simulation core. This holds the cells of the grid without any JavaFX in sight,
+so it can be used (and sized) however we like.
+*/
+
+public class Board {
+    // The dimensions of the board, in cells. Width is the number of columns, height is the
+    // number of rows.
+    final int width;
+    final int height;
+
+    // Cells are bit-packed: each row is stored as a run of longs, one bit per cell, with
+    // cell x of a row at bit (x % 64) of word (x / 64).
+    final int wordsPerRow;
+
+    // Around the board is a halo, one cell thick, holding whatever the topology says is
+    // just past each edge. There's a halo row above and below the board, and each row has
+    // a guard word on either side, so a row takes up stride words in total:
+    //
+    //   [guard] [word 0] [word 1] ... [word wordsPerRow - 1] [guard]
+    //
+    // The west halo cell is the top bit of the first guard word, and the east halo cell is
+    // the bit just after the last cell (which is in the trailing guard word if width is a
+    // multiple of 64). Cell (x, y) ends up in word (y + 1) * stride + 1 + x / 64.
+    final int stride;
+
+    // Masks out everything but real cells, for each word position in a row (guards
+    // included). Results are ANDed with these so the halo never leaks into the board.
+    final long[] wordMasks;
+
+    Topology topology;
+
+    // How many generations this board has been stepped through.
+    long generation = 0;
+
+    // Goes up every time cells are changed by anything other than step(), so anything
+    // keeping track of the board (like a CycleDetector) can tell it's been edited.
+    long modifications = 0;
+
+    // The board is also split into tiles of 64x64 cells (64 rows of a single word), and
+    // changedTiles keeps track of which ones have had any cell change since the last step
+    // (by stepping or by being edited). Tiles are numbered across then down.
+    static final int TILE_SIZE = 64;
+    final int tilesAcross;
+    final int tilesDown;
+    boolean[] changedTiles;
+
+    // Scratch space for the sparse step, which marks the tiles it needs to look at here.
+    boolean[] activeTiles;
+
+    // The rule the last sparse step went by. A tile that was settled under one rule might
+    // not be under another, so changing the rule has to wake up every tile.
+    Rule sparseRule;
+
+    // Running totals, kept up to date by step() and by every edit, so nothing ever has to
+    // go over the whole board to find them. tilePopulation is how many cells are alive in
+    // each tile. births and deaths are how many cells came alive and died in the last
+    // step, with tileBirths and tileDeaths breaking them down by tile.
+    long population = 0;
+    int[] tilePopulation;
+    long births = 0;
+    long deaths = 0;
+    int[] tileBirths;
+    int[] tileDeaths;
+
+    // How step() spreads its work over the CPU.
+    StepMode stepMode = StepMode.SERIAL;
+
+    // Which rule the cells follow. Life-like and Generations rules are stepped 64 cells at
+    // a time; anything else (neighbours further away) goes through stepGeneric instead.
+    Rule rule = Rule.CONWAY;
+
+    // Only used by rules with more than two states: the state of each dying cell (2 and
+    // up) at index y * width + x. Living cells are still just the bits in cells, so editing
+    // and drawing work the same as for any other rule. Generations rules also keep a bit
+    // for every dying cell in dying (laid out like cells, and double buffered the same
+    // way), and only look at ages for cells whose bit is set.
+    byte[] ages;
+    long[] dying;
+    long[] dyingNext;
+    // The rule ages was filled in under. Changing the rule starts every dying cell over
+    // as dead, since its state might not mean anything under the new rule.
+    Rule agesRule;
+
+    // Scratch space for stepGeneric's neighbour counting.
+    int[] areaSums;
+
+    // Scratch space for VectorStepper (see stepRows there), made the first time it steps
+    // this board and kept, so that stepping with vectors doesn't allocate anything either.
+    long[][] vectorOnes;
+    long[][] vectorTwos;
+    long[][] vectorCounts;
+    long[] vectorValues;
+    long[] vectorBefores;
+
+    // The board is double buffered. cells holds the current generation, and next is where
+    // step() writes the following one before the two are swapped. This way a step never
+    // has to allocate anything.
+    long[] cells;
+    long[] next;
+
+    public Board(int width, int height, Topology topology) {
+        this.width = width;
+        this.height = height;
+        this.topology = topology;
+        wordsPerRow = (width + 63) / 64;
+        stride = wordsPerRow + 2;
+
+        wordMasks = new long[stride];
+        java.util.Arrays.fill(wordMasks, 1, wordsPerRow + 1, -1L);
+        if (width % 64 != 0) {
+            wordMasks[wordsPerRow] = (1L << width) - 1;
+        }
+
+        cells = new long[stride * (height + 2)];
+        next = new long[stride * (height + 2)];
+
+        tilesAcross = wordsPerRow;
+        tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+        // Every tile starts out as changed, since the first step has nothing to go on. An
+        // empty board still needs looking at once, because under a rule with B0 (like
+        // "B0/S") empty space doesn't stay empty.
+        changedTiles = new boolean[tilesAcross * tilesDown];
+        java.util.Arrays.fill(changedTiles, true);
+        activeTiles = new boolean[tilesAcross * tilesDown];
+        tilePopulation = new int[tilesAcross * tilesDown];
+        tileBirths = new int[tilesAcross * tilesDown];
+        tileDeaths = new int[tilesAcross * tilesDown];
+    }
+
+    // The tile that cell (x, y) belongs to.
+    int tileIndex(int x, int y) {
+        return (y / TILE_SIZE) * tilesAcross + (x >> 6);
+    }
+
+    // The index in cells of the word holding cell (x, y).
+    int wordIndex(int x, int y) {
+        return (y + 1) * stride + 1 + (x >> 6);
+    }
+
+    public boolean get(int x, int y) {
+        return (cells[wordIndex(x, y)] & (1L << x)) != 0;
+    }
+
+    // The whole state of the cell at (x, y): 0 for dead, 1 for alive, and 2 and up for
+    // dying, with rules that have dying states.
+    public int state(int x, int y) {
+        if (get(x, y)) {
+            return 1;
+        }
+        if (!hasDyingStates()) {
+            return 0;
+        }
+        if (rule.isGenerations() && (dying[wordIndex(x, y)] & (1L << x)) == 0) {
+            return 0;
+        }
+        return ages[y * width + x] & 0xFF;
+    }
+
+    // Whether ages (and dying, for Generations rules) say anything about the current rule.
+    boolean hasDyingStates() {
+        return rule.states > 2 && ages != null && rule.equals(agesRule);
+    }
+
+    public void set(int x, int y, boolean alive) {
+        // Java only looks at the low 6 bits of a shift amount, so 1L << x is the same as
+        // 1L << (x % 64) here.
+        int index = wordIndex(x, y);
+        long before = cells[index];
+        if (alive) {
+            cells[index] |= 1L << x;
+        } else {
+            cells[index] &= ~(1L << x);
+        }
+        int change = Long.bitCount(cells[index]) - Long.bitCount(before);
+        int tile = tileIndex(x, y);
+        tilePopulation[tile] += change;
+        population += change;
+        changedTiles[tile] = true;
+        modifications++;
+    }
+
+    // Set the whole state of the cell at (x, y), the same way state() gives it. Dying
+    // states only mean anything under a rule that has that many states, so any other
+    // state leaves the cell dead.
+    public void setState(int x, int y, int state) {
+        set(x, y, state == 1);
+        if (rule.states <= 2) {
+            return;
+        }
+        prepareAges();
+        boolean dyingState = state >= 2 && state < rule.states;
+        ages[y * width + x] = (byte) (dyingState ? state : 0);
+        if (rule.isGenerations()) {
+            if (dyingState) {
+                dying[wordIndex(x, y)] |= 1L << x;
+            } else {
+                dying[wordIndex(x, y)] &= ~(1L << x);
+            }
+        }
+    }
+
+    public void toggle(int x, int y) {
+        int index = wordIndex(x, y);
+        cells[index] ^= 1L << x;
+        int change = (cells[index] & (1L << x)) != 0 ? 1 : -1;
+        int tile = tileIndex(x, y);
+        tilePopulation[tile] += change;
+        population += change;
+        changedTiles[tile] = true;
+        modifications++;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(cells, 0);
+        if (ages != null) {
+            java.util.Arrays.fill(ages, (byte) 0);
+            java.util.Arrays.fill(dying, 0);
+        }
+        markAllChanged();
+    }
+
+    // Make count cells alive, starting at (x, y) and going right. Whole words in the
+    // middle of the run are filled in one go.
+    public void setRun(int x, int y, int count) {
+        int end = x + count;
+        while (x < end) {
+            int bits = Math.min(64 - (x & 63), end - x);
+            long mask = bits == 64 ? -1L : ((1L << bits) - 1) << x;
+            int index = wordIndex(x, y);
+            int born = Long.bitCount(mask & ~cells[index]);
+            cells[index] |= mask;
+            tilePopulation[tileIndex(x, y)] += born;
+            population += born;
+            changedTiles[tileIndex(x, y)] = true;
+            x += bits;
+        }
+        modifications++;
+    }
+
+    // Bring each cell to life with the given chance (0.25 makes about a quarter of them
+    // alive), going along each row in turn. Using the same seed gives the same board.
+    public void randomize(java.util.Random random, double density) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                set(x, y, random.nextDouble() < density);
+            }
+        }
+    }
+
+    // Say that every tile has changed, for when the cells have been written directly.
+    // Since there's no telling what changed, the running totals get worked out again.
+    public void markAllChanged() {
+        java.util.Arrays.fill(changedTiles, true);
+        modifications++;
+        countPopulation();
+    }
+
+    // How many cells are alive.
+    public long population() {
+        return population;
+    }
+
+    // Work out population and tilePopulation from scratch.
+    void countPopulation() {
+        java.util.Arrays.fill(tilePopulation, 0);
+        population = 0;
+        for (int y = 0; y < height; y++) {
+            int rowStart = wordIndex(0, y);
+            int tileRow = (y / TILE_SIZE) * tilesAcross;
+            for (int w = 0; w < wordsPerRow; w++) {
+                int count = Long.bitCount(cells[rowStart + w] & wordMasks[w + 1]);
+                tilePopulation[tileRow + w] += count;
+                population += count;
+            }
+        }
+    }
+
+    // Add up the births and deaths the step just counted into the running totals. Only
+    // tiles that changed can have any.
+    void tallyStep() {
+        births = 0;
+        deaths = 0;
+        for (int tile = 0; tile < changedTiles.length; tile++) {
+            if (changedTiles[tile]) {
+                tilePopulation[tile] += tileBirths[tile] - tileDeaths[tile];
+                births += tileBirths[tile];
+                deaths += tileDeaths[tile];
+            }
+        }
+        population += births - deaths;
+    }
+
+    // The smallest rectangle holding every living cell, or null if there aren't any.
+    // Only tiles along the edges of the living tiles get looked at cell by cell.
+    public Statistics.Box boundingBox() {
+        if (population == 0) {
+            return null;
+        }
+        int firstTileRow = tilesDown;
+        int lastTileRow = -1;
+        int firstTileColumn = tilesAcross;
+        int lastTileColumn = -1;
+        for (int ty = 0; ty < tilesDown; ty++) {
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                if (tilePopulation[ty * tilesAcross + tx] > 0) {
+                    firstTileRow = Math.min(firstTileRow, ty);
+                    lastTileRow = ty;
+                    firstTileColumn = Math.min(firstTileColumn, tx);
+                    lastTileColumn = Math.max(lastTileColumn, tx);
+                }
+            }
+        }
+
+        int top = firstTileRow * TILE_SIZE;
+        while (isRowEmpty(top, firstTileColumn, lastTileColumn)) {
+            top++;
+        }
+        int bottom = Math.min(height, (lastTileRow + 1) * TILE_SIZE) - 1;
+        while (isRowEmpty(bottom, firstTileColumn, lastTileColumn)) {
+            bottom--;
+        }
+        long leftWords = 0;
+        long rightWords = 0;
+        for (int y = top; y <= bottom; y++) {
+            leftWords |= cells[wordIndex(firstTileColumn << 6, y)] & wordMasks[firstTileColumn + 1];
+            rightWords |= cells[wordIndex(lastTileColumn << 6, y)] & wordMasks[lastTileColumn + 1];
+        }
+        int left = (firstTileColumn << 6) + Long.numberOfTrailingZeros(leftWords);
+        int right = (lastTileColumn << 6) + 63 - Long.numberOfLeadingZeros(rightWords);
+        return new Statistics.Box(left, top, right, bottom);
+    }
+
+    // Whether words fromWord to toWord (inclusive) of row y have no living cells.
+    boolean isRowEmpty(int y, int fromWord, int toWord) {
+        int rowStart = wordIndex(0, y);
+        for (int w = fromWord; w <= toWord; w++) {
+            if ((cells[rowStart + w] & wordMasks[w + 1]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A copy of the running totals, safe to hand to another thread.
+    public Statistics statistics() {
+        return new Statistics(generation, width, height, population, births, deaths, boundingBox(), tilesAcross,
+                tilesDown, tilePopulation.clone());
+    }
+
+    // Whether word w of rows y up to y + count (exclusive) has no living cells.
+    boolean isEmpty(int w, int y, int count) {
+        for (int index = wordIndex(w << 6, y); index < wordIndex(w << 6, y + count); index += stride) {
+            if (cells[index] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Cell x of the row starting at rowStart, as a 0 or 1.
+    long bit(int rowStart, int x) {
+        return (cells[rowStart + 1 + (x >> 6)] >>> x) & 1L;
+    }
+
+    // Advance the board by one generation.
+    public void step() {
+        // The Vector API only does two-state rules, and only if it's there at all.
+        step(stepMode == StepMode.VECTOR && rule.isLifeLike() && StepMode.vectorAvailable());
+    }
+
+    // The same, stepping with VectorStepper if vector is set, or the plain way if not.
+    void step(boolean vector) {
+        // Fill in the halo first, so that every cell on the board has all 8 of its
+        // neighbours sitting in memory next to it.
+        topology.fillHalo(this);
+        prepareAges();
+        java.util.Arrays.fill(tileBirths, 0);
+        java.util.Arrays.fill(tileDeaths, 0);
+
+        if (!rule.isLifeLike() && !rule.isGenerations()) {
+            stepGeneric();
+        } else if (stepMode == StepMode.SPARSE) {
+            stepSparse();
+        } else {
+            java.util.Arrays.fill(changedTiles, false);
+            if (vector) {
+                VectorStepper.stepRows(this, 0, height);
+            } else if (stepMode == StepMode.PARALLEL) {
+                RowBandTask.stepAll(this);
+            } else {
+                stepRows(0, height);
+            }
+        }
+
+        // Swap the buffers, so the old generation can be overwritten next step.
+        long[] current = cells;
+        cells = next;
+        next = current;
+        if (rule.isGenerations()) {
+            long[] currentDying = dying;
+            dying = dyingNext;
+            dyingNext = currentDying;
+        }
+        tallyStep();
+        generation++;
+    }
+
+    // Set up ages (and dying) for the current rule, if it needs them.
+    void prepareAges() {
+        if (rule.states <= 2) {
+            return;
+        }
+        if (ages == null) {
+            ages = new byte[width * height];
+            dying = new long[cells.length];
+            dyingNext = new long[cells.length];
+        } else if (!rule.equals(agesRule)) {
+            java.util.Arrays.fill(ages, (byte) 0);
+            java.util.Arrays.fill(dying, 0);
+        }
+        agesRule = rule;
+    }
+
+    // Only step the tiles where something could have happened. A cell can only change if
+    // something in its 3x3 neighbourhood changed last time, so any tile that didn't change
+    // and has no changed neighbours is skipped. Its spare buffer is already right, since
+    // that holds the previous generation, which was the same.
+    void stepSparse() {
+        boolean[] changed = changedTiles;
+        boolean[] active = activeTiles;
+        if (!rule.equals(sparseRule)) {
+            java.util.Arrays.fill(changed, true);
+            sparseRule = rule;
+        }
+        java.util.Arrays.fill(active, false);
+
+        for (int ty = 0; ty < tilesDown; ty++) {
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                if (!changed[ty * tilesAcross + tx]) {
+                    continue;
+                }
+                // Mark this tile and the 8 around it.
+                for (int ny = Math.max(0, ty - 1); ny <= Math.min(tilesDown - 1, ty + 1); ny++) {
+                    for (int nx = Math.max(0, tx - 1); nx <= Math.min(tilesAcross - 1, tx + 1); nx++) {
+                        active[ny * tilesAcross + nx] = true;
+                    }
+                }
+                // A tile on an edge can also affect the far side of the board, depending
+                // on the topology. Rather than working out exactly where, just wake up
+                // the whole opposite edge (which is only one row or column of tiles).
+                if (topology != Topology.DEAD) {
+                    if (ty == 0) {
+                        java.util.Arrays.fill(active, (tilesDown - 1) * tilesAcross, tilesDown * tilesAcross, true);
+                    }
+                    if (ty == tilesDown - 1) {
+                        java.util.Arrays.fill(active, 0, tilesAcross, true);
+                    }
+                    if (tx == 0) {
+                        for (int ny = 0; ny < tilesDown; ny++) {
+                            active[ny * tilesAcross + tilesAcross - 1] = true;
+                        }
+                    }
+                    if (tx == tilesAcross - 1) {
+                        for (int ny = 0; ny < tilesDown; ny++) {
+                            active[ny * tilesAcross] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        java.util.Arrays.fill(changed, false);
+        for (int ty = 0; ty < tilesDown; ty++) {
+            int rowStart = ty * tilesAcross;
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                if (active[rowStart + tx]) {
+                    // Step a whole run of active tiles side by side in one go.
+                    int end = tx + 1;
+                    while (end < tilesAcross && active[rowStart + end]) {
+                        end++;
+                    }
+                    stepBlock(ty * TILE_SIZE, Math.min(height, (ty + 1) * TILE_SIZE), tx + 1, end + 1);
+                    tx = end;
+                }
+            }
+        }
+    }
+
+    // Work out the next generation for rows from (inclusive) to to (exclusive), writing it
+    // into the next buffer. Rows only ever read from cells and write to their own part of
+    // next, so separate ranges can safely run at the same time.
+    void stepRows(int from, int to) {
+        stepBlock(from, to, 1, wordsPerRow + 1);
+    }
+
+    // The same as stepRows, but only for words fromWord up to toWord (exclusive) of each
+    // row, counting the leading guard word as word 0. Any tile that comes out different is
+    // marked in changedTiles.
+    void stepBlock(int from, int to, int fromWord, int toWord) {
+        long[] current = cells;
+        long[] result = next;
+        boolean[] changed = changedTiles;
+        int[] born = tileBirths;
+        int[] died = tileDeaths;
+        // Conway's Life gets its own hand-written version of the rule. Any other Life-like
+        // rule looks its answer up in the rule's table.
+        boolean conway = rule.isConway();
+        long[] lookup = rule.wordLookup;
+        boolean generations = rule.isGenerations();
+
+        for (int y = from; y < to; y++) {
+            int middle = (y + 1) * stride;
+            int above = middle - stride;
+            int below = middle + stride;
+            // The changedTiles index of this row's first word is tileRow + 1.
+            int tileRow = (y / TILE_SIZE) * tilesAcross - 1;
+
+            for (int w = fromWord; w < toWord; w++) {
+                // For each of the three rows, get the word itself, plus copies of it shifted
+                // so that every bit lines up with its west and east neighbour. The guard
+                // words mean the words either side of w always exist.
+                long a = current[above + w];
+                long aWest = (a << 1) | (current[above + w - 1] >>> 63);
+                long aEast = (a >>> 1) | (current[above + w + 1] << 63);
+                long b = current[middle + w];
+                long bWest = (b << 1) | (current[middle + w - 1] >>> 63);
+                long bEast = (b >>> 1) | (current[middle + w + 1] << 63);
+                long c = current[below + w];
+                long cWest = (c << 1) | (current[below + w - 1] >>> 63);
+                long cEast = (c >>> 1) | (current[below + w + 1] << 63);
+
+                // Add up all 8 neighbours for all 64 cells at once, using the bits of
+                // several longs as the digits of 64 separate counters.
+                long value = (conway ? lifeRule(aWest, a, aEast, bWest, b, bEast, cWest, c, cEast)
+                        : lifeLikeRule(aWest, a, aEast, bWest, b, bEast, cWest, c, cEast, lookup)) & wordMasks[w];
+                if (generations) {
+                    // Dying cells can't be born into, and cells that don't survive start
+                    // dying. A tile with any dying cells in it counts as changed, so the
+                    // sparse step keeps on ageing them.
+                    long dyingWord = dying[middle + w] & ~b;
+                    value &= ~dyingWord;
+                    long nextDying = ageCells(dyingWord, b & ~value & wordMasks[w], y, w - 1);
+                    dyingNext[middle + w] = nextDying;
+                    changed[tileRow + w] |= (dyingWord | nextDying) != 0;
+                }
+                result[middle + w] = value;
+                long before = b & wordMasks[w];
+                if (value != before) {
+                    changed[tileRow + w] = true;
+                    born[tileRow + w] += Long.bitCount(value & ~before);
+                    died[tileRow + w] += Long.bitCount(before & ~value);
+                }
+            }
+        }
+    }
+
+    // Move the dying cells of word w of row y one state along, and start the newly dying
+    // ones off at state 2, returning which cells are still dying afterwards.
+    long ageCells(long dyingWord, long newlyDying, int y, int w) {
+        int states = rule.states;
+        int rowStart = y * width + (w << 6);
+        long stillDying = newlyDying;
+        for (long bits = dyingWord; bits != 0; bits &= bits - 1) {
+            int index = rowStart + Long.numberOfTrailingZeros(bits);
+            int age = (ages[index] & 0xFF) + 1;
+            if (age < states) {
+                ages[index] = (byte) age;
+                stillDying |= Long.lowestOneBit(bits);
+            }
+        }
+        for (long bits = newlyDying; bits != 0; bits &= bits - 1) {
+            ages[rowStart + Long.numberOfTrailingZeros(bits)] = 2;
+        }
+        return stillDying;
+    }
+
+    // Conway's rule, applied to 64 cells at once. Each argument holds one neighbour (or
+    // the cell itself, which is b) for every cell in the word.
+    static long lifeRule(long aWest, long a, long aEast, long bWest, long b, long bEast, long cWest, long c,
+            long cEast) {
+        // Sum each row of three into a 2-bit number (ones and twos digits).
+        // The middle row leaves out the cell itself.
+        long aOnes = aWest ^ a ^ aEast;
+        long aTwos = (aWest & a) | (aEast & (aWest ^ a));
+        long bOnes = bWest ^ bEast;
+        long bTwos = bWest & bEast;
+        long cOnes = cWest ^ c ^ cEast;
+        long cTwos = (cWest & c) | (cEast & (cWest ^ c));
+
+        // Add the three ones digits. Any carry goes into the twos.
+        long ones = aOnes ^ bOnes ^ cOnes;
+        long carry = (aOnes & bOnes) | (cOnes & (aOnes ^ bOnes));
+
+        // Now there are four twos digits. The cell lives if exactly one of them is set
+        // (2 or 3 neighbours) and either there were 3 neighbours or the cell was already
+        // alive.
+        long twos = aTwos ^ bTwos ^ cTwos ^ carry;
+        long atLeastTwoTwos = (aTwos & bTwos) | (aTwos & cTwos) | (aTwos & carry) | (bTwos & cTwos)
+                | (bTwos & carry) | (cTwos & carry);
+        return twos & ~atLeastTwoTwos & (ones | b);
+    }
+
+    // Any Life-like rule, applied to 64 cells at once. This adds up the neighbours the same
+    // way lifeRule does, but all the way to a 4-bit count, and then picks each cell's fate
+    // out of the rule's lookup table (see Rule.wordLookup) with a tree of bitwise
+    // selections, so there are no branches no matter what the rule is.
+    static long lifeLikeRule(long aWest, long a, long aEast, long bWest, long b, long bEast, long cWest, long c,
+            long cEast, long[] lookup) {
+        long aOnes = aWest ^ a ^ aEast;
+        long aTwos = (aWest & a) | (aEast & (aWest ^ a));
+        long bOnes = bWest ^ bEast;
+        long bTwos = bWest & bEast;
+        long cOnes = cWest ^ c ^ cEast;
+        long cTwos = (cWest & c) | (cEast & (cWest ^ c));
+
+        long ones = aOnes ^ bOnes ^ cOnes;
+        long carry = (aOnes & bOnes) | (cOnes & (aOnes ^ bOnes));
+
+        // Add up the four twos digits into the twos, fours and eights bits of the count.
+        // All four can only be set at once when there are 8 neighbours, in which case
+        // nothing else is.
+        long abTwos = aTwos ^ bTwos;
+        long abFours = aTwos & bTwos;
+        long cCarryTwos = cTwos ^ carry;
+        long cCarryFours = cTwos & carry;
+        long twos = abTwos ^ cCarryTwos;
+        long fours = abFours ^ cCarryFours ^ (abTwos & cCarryTwos);
+        long eights = abFours & cCarryFours;
+
+        return select(b, countLookup(ones, twos, fours, eights, lookup, 0),
+                countLookup(ones, twos, fours, eights, lookup, 9));
+    }
+
+    // For each bit, ifClear where choice is 0 and ifSet where it's 1.
+    static long select(long choice, long ifClear, long ifSet) {
+        return ifClear ^ ((ifClear ^ ifSet) & choice);
+    }
+
+    // Entry (count) of the 9 entries of lookup starting at offset, for each bit's count.
+    static long countLookup(long ones, long twos, long fours, long eights, long[] lookup, int offset) {
+        long upTo1 = select(ones, lookup[offset], lookup[offset + 1]);
+        long upTo3 = select(ones, lookup[offset + 2], lookup[offset + 3]);
+        long upTo5 = select(ones, lookup[offset + 4], lookup[offset + 5]);
+        long upTo7 = select(ones, lookup[offset + 6], lookup[offset + 7]);
+        long upTo7Low = select(twos, upTo1, upTo3);
+        long upTo7High = select(twos, upTo5, upTo7);
+        return select(eights, select(fours, upTo7Low, upTo7High), lookup[offset + 8]);
+    }
+
+    // Step any rule at all, one cell at a time. Neighbours are counted with a summed-area
+    // table over the board plus a border as wide as the rule's range (filled in according
+    // to the topology), so a square neighbourhood costs the same whatever its size, and a
+    // diamond costs one subtraction per row of it. The next state comes out of the rule's
+    // transition table.
+    void stepGeneric() {
+        int range = rule.range;
+        int paddedWidth = width + 2 * range;
+        int paddedHeight = height + 2 * range;
+        int sumsWidth = paddedWidth + 1;
+        if (areaSums == null || areaSums.length != sumsWidth * (paddedHeight + 1)) {
+            areaSums = new int[sumsWidth * (paddedHeight + 1)];
+        }
+
+        // areaSums[(y + 1) * sumsWidth + x + 1] is how many cells are alive in the padded
+        // board from (0, 0) to (x, y) inclusive.
+        int[] sums = areaSums;
+        for (int py = 0; py < paddedHeight; py++) {
+            int rowTotal = 0;
+            for (int px = 0; px < paddedWidth; px++) {
+                int x = px - range;
+                int y = py - range;
+                if (x < 0 || y < 0 || x >= width || y >= height) {
+                    int index = topology.wrap(this, x, y);
+                    rowTotal += index < 0 ? 0 : (int) ((cells[wordIndex(index % width, index / width)] >>> index % width) & 1L);
+                } else {
+                    rowTotal += (int) ((cells[wordIndex(x, y)] >>> x) & 1L);
+                }
+                sums[(py + 1) * sumsWidth + px + 1] = sums[py * sumsWidth + px + 1] + rowTotal;
+            }
+        }
+
+        java.util.Arrays.fill(changedTiles, false);
+        byte[] transitions = rule.transitions;
+        int countsPerState = rule.maxCount + 1;
+        int self = rule.includesSelf ? 0 : 1;
+        for (int y = 0; y < height; y++) {
+            int rowStart = wordIndex(0, y);
+            int tileRow = (y / TILE_SIZE) * tilesAcross;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = cells[rowStart + w];
+                long value = 0;
+                boolean aging = false;
+                for (int x = w << 6; x < Math.min(width, (w + 1) << 6); x++) {
+                    int alive = (int) ((word >>> x) & 1L);
+                    int count = neighbourhoodSum(x + range, y + range) - alive * self;
+                    int state = rule.states == 2 || alive == 1 ? alive : ages[y * width + x] & 0xFF;
+                    int nextState = transitions[state * countsPerState + count] & 0xFF;
+                    value |= nextState == 1 ? 1L << x : 0;
+                    if (rule.states > 2) {
+                        ages[y * width + x] = (byte) (nextState < 2 ? 0 : nextState);
+                        aging |= state >= 2 || nextState >= 2;
+                    }
+                }
+                next[rowStart + w] = value;
+                long before = word & wordMasks[w + 1];
+                tileBirths[tileRow + w] += Long.bitCount(value & ~before);
+                tileDeaths[tileRow + w] += Long.bitCount(before & ~value);
+                // Like with Generations rules, dying cells change every step.
+                changedTiles[tileRow + w] |= value != before || aging;
+            }
+        }
+    }
+
+    // How many cells are alive in the rule's neighbourhood of the cell at (px, py) of the
+    // padded board (including the cell itself).
+    int neighbourhoodSum(int px, int py) {
+        int range = rule.range;
+        int sumsWidth = width + 2 * range + 1;
+        int[] sums = areaSums;
+        if (!rule.vonNeumann) {
+            int left = px - range;
+            int right = px + range + 1;
+            int top = (py - range) * sumsWidth;
+            int bottom = (py + range + 1) * sumsWidth;
+            return sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left];
+        }
+        int total = 0;
+        for (int dy = -range; dy <= range; dy++) {
+            int reach = range - Math.abs(dy);
+            int top = (py + dy) * sumsWidth;
+            int bottom = top + sumsWidth;
+            int left = px - reach;
+            int right = px + reach + 1;
+            total += sums[bottom + right] - sums[bottom + left] - sums[top + right] + sums[top + left];
+        }
+        return total;
+    }
+}
@@ -0,0 +1,289 @@
+import java.util.function.*;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.*;
+import javafx.scene.control.Label;
+import javafx.scene.image.*;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+
+/*
+Draws snapshots of a Board onto a single Canvas.
+
+Every cell is one pixel of a WritableImage, which is then drawn scaled up (and zoomed/panned)
+onto the canvas each frame. Only the 64x64 tiles the snapshot reports as changed are rewritten
+in the image, so a mostly still board costs almost nothing to draw, no matter how big it is.
+Drawing happens once per frame on its own timer, using whichever snapshot is newest at the
+time, however often the board is actually stepped.
+
+How long drawing takes gets recorded in metrics, which can also be shown over the top of the
+board with setStatsVisible().
+
+An unbounded Plane has no size to fit, so its snapshots only cover a window of it. Whenever
+panning or zooming brings anything outside that window on screen, the view asks for a new one
+through onWindowChanged, with some room to spare so small movements don't need one.
+*/
+
+public class BoardView extends Pane {
+    Canvas canvas;
+
+    // The snapshot currently on screen.
+    Snapshot snapshot;
+    WritableImage image;
+
+    // Where new snapshots come from, and who to tell once one has been drawn.
+    Supplier<Snapshot> snapshotSource = () -> null;
+    Consumer<Snapshot> onSnapshotShown = _ -> {
+    };
+
+    // Scratch space for one tile's worth of pixels.
+    int[] tilePixels = new int[Board.TILE_SIZE * Board.TILE_SIZE];
+
+    // How many screen pixels a cell takes up, and where the board's top left corner is.
+    double zoom = 1;
+    double panX = 0;
+    double panY = 0;
+
+    // Set whenever the picture or the zoom or pan change, so the canvas gets redrawn.
+    boolean viewChanged = true;
+
+    int deadArgb;
+    int aliveArgb;
+    Color gridColour;
+    Color lineColour;
+
+    // Where render times go, and the overlay showing them (and everything else).
+    SimulationMetrics metrics = new SimulationMetrics();
+    Label stats;
+
+    // Where the window of a plane the view wants is sent, and what was last asked for.
+    Consumer<Plane.Window> onWindowChanged = _ -> {
+    };
+    Plane.Window requestedWindow;
+
+    // The most cells across a plane's window can be. Zooming out stops short of that.
+    static final int MAX_WINDOW = 4096;
+    // How many chunks of room to spare a new window has on each side.
+    static final int WINDOW_MARGIN = 4;
+
+    // Called with the x and y of whichever cell gets clicked.
+    BiConsumer<Integer, Integer> onCellClicked = (_, _) -> {
+    };
+
+    // Where the mouse was when a pan started.
+    double dragStartX;
+    double dragStartY;
+
+    public BoardView(double width, double height, Color deadColour, Color aliveColour, Color gridColour,
+            Color lineColour) {
+        this.deadArgb = toArgb(deadColour);
+        this.aliveArgb = toArgb(aliveColour);
+        this.gridColour = gridColour;
+        this.lineColour = lineColour;
+
+        canvas = new Canvas(width, height);
+        getChildren().add(canvas);
+        setPrefSize(width, height);
+        setMaxSize(width, height);
+        setClip(new Rectangle(width, height));
+
+        stats = new Label();
+        stats.setFont(Font.font("Monospaced", 11));
+        stats.setStyle("-fx-background-color: rgba(0, 0, 0, 0.6); -fx-text-fill: white; -fx-padding: 4;");
+        stats.setMouseTransparent(true);
+        stats.setVisible(false);
+        getChildren().add(stats);
+
+        // A left click toggles a cell. Working out which one is just a matter of undoing
+        // the zoom and pan.
+        canvas.setOnMouseClicked(ev -> {
+            if (ev.getButton() != MouseButton.PRIMARY || !ev.isStillSincePress() || snapshot == null) {
+                return;
+            }
+            int x = (int) Math.floor((ev.getX() - panX) / zoom);
+            int y = (int) Math.floor((ev.getY() - panY) / zoom);
+            if (snapshot.source instanceof Plane || (x >= 0 && y >= 0 && x < snapshot.width && y < snapshot.height)) {
+                onCellClicked.accept(x, y);
+            }
+        });
+
+        // Dragging with any other button pans the view around.
+        canvas.setOnMousePressed(ev -> {
+            dragStartX = ev.getX();
+            dragStartY = ev.getY();
+        });
+        canvas.setOnMouseDragged(ev -> {
+            if (ev.isPrimaryButtonDown()) {
+                return;
+            }
+            panX += ev.getX() - dragStartX;
+            panY += ev.getY() - dragStartY;
+            dragStartX = ev.getX();
+            dragStartY = ev.getY();
+            viewChanged = true;
+        });
+
+        // Scrolling zooms in and out, keeping whatever's under the mouse in place.
+        canvas.setOnScroll(ev -> {
+            double factor = ev.getDeltaY() > 0 ? 1.25 : 0.8;
+            double minZoom = 0.05;
+            if (snapshot != null && snapshot.source instanceof Plane) {
+                minZoom = Math.max(canvas.getWidth(), canvas.getHeight())
+                        / (MAX_WINDOW - 2 * WINDOW_MARGIN * Plane.CHUNK_SIZE);
+            }
+            double newZoom = Math.max(minZoom, Math.min(64, zoom * factor));
+            panX = ev.getX() - (ev.getX() - panX) * newZoom / zoom;
+            panY = ev.getY() - (ev.getY() - panY) * newZoom / zoom;
+            zoom = newZoom;
+            viewChanged = true;
+        });
+
+        // Pick up the newest snapshot and redraw (if needed) once per frame.
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                SimulationMetrics.RenderEvent event = metrics.startRender();
+                Snapshot newSnapshot = snapshotSource.get();
+                if (newSnapshot != null) {
+                    show(newSnapshot);
+                }
+                // Frames where nothing needed drawing don't count.
+                boolean drawing = snapshot != null && viewChanged;
+                draw();
+                if (drawing) {
+                    metrics.endRender(event, snapshot.generation);
+                }
+                if (newSnapshot != null) {
+                    onSnapshotShown.accept(newSnapshot);
+                }
+                if (stats.isVisible()) {
+                    stats.setText(metrics.overlayText());
+                }
+            }
+        }.start();
+    }
+
+    void setStatsVisible(boolean visible) {
+        stats.setVisible(visible);
+    }
+
+    static int toArgb(Color colour) {
+        return ((int) Math.round(colour.getOpacity() * 255) << 24) | ((int) Math.round(colour.getRed() * 255) << 16)
+                | ((int) Math.round(colour.getGreen() * 255) << 8) | (int) Math.round(colour.getBlue() * 255);
+    }
+
+    // Copy the changed parts of a snapshot into the image. If it's from a different board
+    // than before, start over with a fresh image, zoomed to fit the canvas. If it's a
+    // different window of the same plane, everything in it needs copying, but the view
+    // stays where it is.
+    void show(Snapshot newSnapshot) {
+        boolean newBoard = snapshot == null || snapshot.source != newSnapshot.source;
+        boolean moved = newBoard || snapshot.originX != newSnapshot.originX || snapshot.originY != newSnapshot.originY
+                || snapshot.width != newSnapshot.width || snapshot.height != newSnapshot.height;
+        snapshot = newSnapshot;
+        if (moved && (image == null || image.getWidth() != snapshot.width || image.getHeight() != snapshot.height)) {
+            image = new WritableImage(snapshot.width, snapshot.height);
+        }
+        if (newBoard) {
+            zoom = Math.min(canvas.getWidth() / snapshot.width, canvas.getHeight() / snapshot.height);
+            panX = (canvas.getWidth() - snapshot.width * zoom) / 2 - snapshot.originX * zoom;
+            panY = (canvas.getHeight() - snapshot.height * zoom) / 2 - snapshot.originY * zoom;
+            requestedWindow = null;
+        }
+        copyTiles(moved);
+        viewChanged = true;
+    }
+
+    // If the view has moved past the edge of a plane's window, ask for one around what's
+    // on screen now.
+    void updateWindow() {
+        if (!(snapshot.source instanceof Plane)) {
+            return;
+        }
+        long chunk = Plane.CHUNK_SIZE;
+        long left = Math.floorDiv((long) Math.floor(-panX / zoom), chunk);
+        long top = Math.floorDiv((long) Math.floor(-panY / zoom), chunk);
+        long right = Math.floorDiv((long) Math.ceil((canvas.getWidth() - panX) / zoom), chunk) + 1;
+        long bottom = Math.floorDiv((long) Math.ceil((canvas.getHeight() - panY) / zoom), chunk) + 1;
+        Plane.Window current = requestedWindow != null ? requestedWindow
+                : new Plane.Window(snapshot.originX, snapshot.originY, snapshot.width, snapshot.height);
+        if (left * chunk >= current.left() && top * chunk >= current.top()
+                && right * chunk <= current.left() + current.width()
+                && bottom * chunk <= current.top() + current.height()) {
+            return;
+        }
+        left -= WINDOW_MARGIN;
+        top -= WINDOW_MARGIN;
+        right = Math.min(right + WINDOW_MARGIN, left + MAX_WINDOW / chunk);
+        bottom = Math.min(bottom + WINDOW_MARGIN, top + MAX_WINDOW / chunk);
+        requestedWindow = new Plane.Window(left * chunk, top * chunk, (int) ((right - left) * chunk),
+                (int) ((bottom - top) * chunk));
+        onWindowChanged.accept(requestedWindow);
+    }
+
+    void draw() {
+        if (snapshot == null || !viewChanged) {
+            return;
+        }
+        updateWindow();
+
+        // Where the snapshot's top left corner goes on the canvas.
+        double left = panX + snapshot.originX * zoom;
+        double top = panY + snapshot.originY * zoom;
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setImageSmoothing(false);
+        gc.setFill(gridColour);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        gc.drawImage(image, left, top, snapshot.width * zoom, snapshot.height * zoom);
+
+        // Once cells are big enough to pick out, draw lines between them like the old
+        // Rectangle-per-cell grid did. Only the lines that are on screen get drawn.
+        if (zoom >= 6) {
+            gc.setStroke(lineColour);
+            gc.setLineWidth(0.25);
+            // Counting from the snapshot's top left corner.
+            int firstColumn = Math.max(0, (int) Math.floor(-left / zoom));
+            int lastColumn = Math.min(snapshot.width, (int) Math.ceil((canvas.getWidth() - left) / zoom));
+            int firstRow = Math.max(0, (int) Math.floor(-top / zoom));
+            int lastRow = Math.min(snapshot.height, (int) Math.ceil((canvas.getHeight() - top) / zoom));
+            for (int x = firstColumn; x <= lastColumn; x++) {
+                gc.strokeLine(left + x * zoom, top + firstRow * zoom, left + x * zoom, top + lastRow * zoom);
+            }
+            for (int y = firstRow; y <= lastRow; y++) {
+                gc.strokeLine(left + firstColumn * zoom, top + y * zoom, left + lastColumn * zoom, top + y * zoom);
+            }
+        }
+
+        viewChanged = false;
+    }
+
+    // Rewrite the pixels of every changed tile (or every tile, if all is true) from the
+    // snapshot.
+    void copyTiles(boolean all) {
+        PixelWriter writer = image.getPixelWriter();
+        PixelFormat<java.nio.IntBuffer> format = PixelFormat.getIntArgbInstance();
+        for (int ty = 0; ty < snapshot.tilesDown; ty++) {
+            for (int tx = 0; tx < snapshot.tilesAcross; tx++) {
+                if (!all && !snapshot.changedTiles[ty * snapshot.tilesAcross + tx]) {
+                    continue;
+                }
+
+                int x0 = tx * Board.TILE_SIZE;
+                int y0 = ty * Board.TILE_SIZE;
+                int tileWidth = Math.min(Board.TILE_SIZE, snapshot.width - x0);
+                int tileHeight = Math.min(Board.TILE_SIZE, snapshot.height - y0);
+                for (int y = 0; y < tileHeight; y++) {
+                    // A tile is exactly one word of each row.
+                    long word = snapshot.cells[snapshot.wordIndex(x0, y0 + y)];
+                    for (int x = 0; x < tileWidth; x++) {
+                        tilePixels[y * tileWidth + x] = ((word >>> x) & 1L) != 0 ? aliveArgb : deadArgb;
+                    }
+                }
+                writer.setPixels(x0, y0, tileWidth, tileHeight, format, tilePixels, 0, tileWidth);
+            }
+        }
+    }
+}
@@ -0,0 +1,549 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+Reading and writing .cgol files.
+
+Version 4 files (the only kind that gets written now) look like this, with numbers stored
+big-endian unless noted:
+    4 bytes: the letters "CGOL"
+    1 byte: the version, 4
+    1 byte: the edge topology (0 for dead edges, 1 for wraparound, 2 for Klein bottle,
+            3 for mirrored), or 255 for part of an unbounded plane
+    1 byte: how the cells are encoded (0 for bit-packed, 1 for run-length, 2 for chunks,
+            which is what a plane always uses)
+    1 byte: the length of the rule, in bytes
+    4 bytes: the number of columns (width), or 64 for a plane
+    4 bytes: the number of rows (height), or 64 for a plane
+    8 bytes: the generation index
+    the rule, as a rulestring in ASCII (see Rule.java)
+    only for a plane, 8 bytes: the number of chunks
+followed by the cells. Bit-packed cells are stored a row at a time,
+top to bottom, each row as (width + 63) / 64 little-endian longs with cell x at bit
+x % 64 of long x / 64. That's exactly how a Board holds them, so they can be copied
+straight in. Run-length cells are a series of lengths, each a variable-length number (7 bits per
+byte, low bits first, top bit set on all but the last byte), going through the cells left
+to right, top to bottom. The runs alternate between dead and alive, starting with dead
+(so the first one can be 0).
+
+Under a rule with more than two states, the living cells are followed by the dying ones.
+First comes 1 byte saying how they're encoded, then which cells are dying, encoded just
+like the living cells (as if the dying ones were alive), and then 1 byte for each dying
+cell, in the same order (left to right, top to bottom), giving its state (2 and up).
+
+A plane is saved as just the 64x64 chunks that have anything alive in them, in no
+particular order. Each one is 4 bytes for its x and 4 for its y, counted in chunks (so
+the chunk at (1, -1) has its top left cell at (64, -64)), then its 64 rows, top to bottom,
+as little-endian longs laid out like bit-packed cells. That's only as big as the living
+part of the plane, however far apart the pieces of it are, and reads back onto a new
+plane in the same place.
+
+Version 3 files are the same as version 4, except that they can't hold a plane, and only
+the living cells are saved, so dying cells come back dead.
+
+Version 2 files are exactly the same as version 3, except that the rule length byte was
+always 0 and there's no rule, since every board ran Conway's Life back then.
+
+Version 1 files have no header, so they're recognised by not starting with "CGOL". They
+hold rows, columns, wraparound (0 or 1) and the generation index as one byte each, then
+one byte per cell (1 for alive, 0 for dead) going down each column in turn.
+*/
+
+public class CgolFormat {
+    static final byte[] MAGIC = { 'C', 'G', 'O', 'L' };
+    static final int VERSION = 4;
+    static final int HEADER_BYTES = 24;
+
+    // The topology byte of a plane.
+    static final int UNBOUNDED = 255;
+
+    static final int PACKED = 0;
+    static final int RUN_LENGTH = 1;
+    static final int CHUNKS = 2;
+
+    // How many bytes each chunk of a plane takes up.
+    static final int CHUNK_BYTES = 8 + Plane.CHUNK_SIZE * 8;
+
+    // Files are mapped into memory this much at a time, since a single mapping can't go
+    // past 2GB.
+    static final long WINDOW_BYTES = 1L << 30;
+
+    public static void write(Snapshot snapshot, File targetFile) throws IOException {
+        write(snapshot, targetFile, false);
+    }
+
+    // The same, but if durable is set, this doesn't return until the file has actually made
+    // it onto the disk, rather than just into the operating system's cache.
+    static void write(Snapshot snapshot, File targetFile, boolean durable) throws IOException {
+        // Run-length encoding needs at most two runs per living cell, and most runs fit in
+        // a byte or two, so it wins whenever the board is sparse enough. A plane only has
+        // the one way.
+        boolean unbounded = snapshot.chunkKeys != null;
+        int encoding = unbounded ? CHUNKS : encoding(snapshot, snapshot.population());
+
+        try (FileChannel channel = FileChannel.open(targetFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            buffer.put(MAGIC);
+            buffer.put((byte) VERSION);
+            buffer.put((byte) (unbounded ? UNBOUNDED : snapshot.topology.ordinal()));
+            byte[] rule = snapshot.rule.name.getBytes(StandardCharsets.US_ASCII);
+            buffer.put((byte) encoding);
+            buffer.put((byte) rule.length);
+            buffer.putInt(unbounded ? Plane.CHUNK_SIZE : snapshot.width);
+            buffer.putInt(unbounded ? Plane.CHUNK_SIZE : snapshot.height);
+            buffer.putLong(snapshot.generation);
+            buffer.put(rule);
+
+            if (unbounded) {
+                writeChunks(snapshot, channel, buffer);
+            } else {
+                writeCells(snapshot, snapshot.cells, encoding, channel, buffer);
+                if (snapshot.rule.states > 2) {
+                    writeDying(snapshot, channel, buffer);
+                }
+            }
+            drain(channel, buffer);
+            if (durable) {
+                channel.force(true);
+            }
+        }
+    }
+
+    // Write a snapshot without ever leaving a half-written file at targetFile, even if the
+    // program (or the computer) dies partway through. It's written to a temporary file next
+    // to targetFile first, which then replaces it in one step, so targetFile is always
+    // either the old file or the whole of the new one. Every write gets a temporary file of
+    // its own, so two saves to the same place at once can't write over each other's.
+    public static void writeAtomically(Snapshot snapshot, File targetFile) throws IOException {
+        Path target = targetFile.getAbsoluteFile().toPath();
+        Path temporary = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        try {
+            write(snapshot, temporary.toFile(), true);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Some file systems can't do that. Replacing it afterwards still beats
+                // writing over it directly, since at least the old file stays whole until
+                // the new one is.
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // Only still there if something went wrong.
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    // Write out whatever's in the buffer, leaving it empty.
+    static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Which way of encoding cells takes up less room, when count of them are set.
+    static int encoding(Snapshot snapshot, long count) {
+        long packedBytes = (long) snapshot.height * (snapshot.stride - 2) * 8;
+        long runLengthEstimate = (2 * count + 1) * 2;
+        return runLengthEstimate < packedBytes ? RUN_LENGTH : PACKED;
+    }
+
+    // Write out the set cells of words, which is laid out like Snapshot.cells.
+    static void writeCells(Snapshot snapshot, long[] words, int encoding, FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        if (encoding == PACKED) {
+            writePacked(snapshot, words, channel, buffer);
+        } else {
+            writeRunLength(snapshot, words, channel, buffer);
+        }
+    }
+
+    // Write out which cells are dying and the state of each one. A snapshot that wasn't
+    // made for saving doesn't know, so its cells are all saved as not dying.
+    static void writeDying(Snapshot snapshot, FileChannel channel, ByteBuffer buffer) throws IOException {
+        long[] dying = snapshot.dying != null ? snapshot.dying : new long[snapshot.cells.length];
+        long count = 0;
+        for (long word : dying) {
+            count += Long.bitCount(word);
+        }
+        int encoding = encoding(snapshot, count);
+        if (!buffer.hasRemaining()) {
+            drain(channel, buffer);
+        }
+        buffer.put((byte) encoding);
+        writeCells(snapshot, dying, encoding, channel, buffer);
+        for (int y = 0; y < snapshot.height; y++) {
+            int rowStart = snapshot.wordIndex(0, y);
+            for (int w = 0; w < snapshot.stride - 2; w++) {
+                for (long bits = dying[rowStart + w]; bits != 0; bits &= bits - 1) {
+                    if (!buffer.hasRemaining()) {
+                        drain(channel, buffer);
+                    }
+                    int x = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    buffer.put(snapshot.ages[y * snapshot.width + x]);
+                }
+            }
+        }
+    }
+
+    static void writeChunks(Snapshot snapshot, FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.putLong(snapshot.chunkKeys.length);
+        for (int i = 0; i < snapshot.chunkKeys.length; i++) {
+            if (buffer.remaining() < CHUNK_BYTES) {
+                drain(channel, buffer);
+            }
+            long key = snapshot.chunkKeys[i];
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt((int) Plane.keyX(key));
+            buffer.putInt((int) Plane.keyY(key));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < Plane.CHUNK_SIZE; row++) {
+                buffer.putLong(snapshot.cells[i * Plane.CHUNK_SIZE + row]);
+            }
+        }
+    }
+
+    static void writePacked(Snapshot snapshot, long[] words, FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        int wordsPerRow = snapshot.stride - 2;
+        long lastWordMask = snapshot.width % 64 == 0 ? -1L : (1L << snapshot.width) - 1;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < snapshot.height; y++) {
+            int rowStart = snapshot.wordIndex(0, y);
+            for (int w = 0; w < wordsPerRow; w++) {
+                if (buffer.remaining() < 8) {
+                    drain(channel, buffer);
+                }
+                // The last word of a row also holds a halo bit, which mustn't be saved.
+                buffer.putLong(w == wordsPerRow - 1 ? words[rowStart + w] & lastWordMask : words[rowStart + w]);
+            }
+        }
+    }
+
+    static void writeRunLength(Snapshot snapshot, long[] words, FileChannel channel, ByteBuffer buffer)
+            throws IOException {
+        // Go through the cells looking for where runs start and end, skipping a whole word
+        // at a time wherever nothing changes.
+        boolean alive = false;
+        long runLength = 0;
+        for (int y = 0; y < snapshot.height; y++) {
+            int rowStart = snapshot.wordIndex(0, y);
+            int x = 0;
+            while (x < snapshot.width) {
+                long word = words[rowStart + (x >> 6)] >>> x;
+                // Look for the next cell that isn't the same as the current run.
+                long different = alive ? ~word : word;
+                int bitsLeftInWord = 64 - (x & 63);
+                int same = different == 0 ? bitsLeftInWord : Math.min(bitsLeftInWord, Long.numberOfTrailingZeros(different));
+                same = Math.min(same, snapshot.width - x);
+                runLength += same;
+                x += same;
+                if (x < snapshot.width && same < bitsLeftInWord) {
+                    // The run ends here.
+                    if (buffer.remaining() < 10) {
+                        drain(channel, buffer);
+                    }
+                    putVarLong(buffer, runLength);
+                    runLength = 0;
+                    alive = !alive;
+                }
+            }
+        }
+        if (buffer.remaining() < 10) {
+            drain(channel, buffer);
+        }
+        putVarLong(buffer, runLength);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Read a .cgol file of any version into a new board. A plane comes back as a board
+    // just big enough for its living cells, the same as Plane.toBoard gives.
+    public static Board read(File sourceFile) throws IOException {
+        Object contents = readBoardOrPlane(sourceFile);
+        return contents instanceof Plane plane ? plane.toBoard() : (Board) contents;
+    }
+
+    // Read a .cgol file of any version into whatever it was saved from: a new Board, or a
+    // new Plane.
+    public static Object readBoardOrPlane(File sourceFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            header.flip();
+
+            if (header.remaining() < HEADER_BYTES || header.getInt(0) != ByteBuffer.wrap(MAGIC).getInt()) {
+                return readVersion1(sourceFile);
+            }
+
+            header.position(4);
+            int version = header.get();
+            if (version < 2 || version > VERSION) {
+                throw new IOException("Unsupported .cgol version " + version);
+            }
+            int topologyByte = header.get() & 0xFF;
+            boolean unbounded = version >= 4 && topologyByte == UNBOUNDED;
+            Topology topology = unbounded ? Topology.DEAD : topology(topologyByte);
+            int encoding = header.get();
+            int ruleLength = header.get() & 0xFF;
+            int width = header.getInt();
+            int height = header.getInt();
+            long generation = header.getLong();
+
+            // Check everything the header says before making a board out of it, so a
+            // damaged file gets a sensible error rather than running out of memory.
+            boolean knownEncoding = unbounded ? encoding == CHUNKS : encoding == PACKED || encoding == RUN_LENGTH;
+            if (!knownEncoding) {
+                throw new IOException("Unknown cell encoding " + encoding);
+            }
+            if (unbounded && (width != Plane.CHUNK_SIZE || height != Plane.CHUNK_SIZE)) {
+                throw new IOException("Bad chunk size " + width + "x" + height);
+            }
+            checkSize(width, height);
+            long cellsStart = HEADER_BYTES + ruleLength;
+            long cellBytes = encoding == PACKED ? (long) height * ((width + 63) / 64) * 8 : unbounded ? 8 : 1;
+            if (channel.size() < cellsStart + cellBytes) {
+                throw new EOFException("The file is too short for a " + width + "x" + height + " board");
+            }
+
+            Rule rule = Rule.CONWAY;
+            if (ruleLength > 0) {
+                ByteBuffer ruleBytes = ByteBuffer.allocate(ruleLength);
+                while (ruleBytes.hasRemaining() && channel.read(ruleBytes) >= 0) {
+                }
+                try {
+                    rule = Rule.parse(new String(ruleBytes.array(), 0, ruleBytes.position(), StandardCharsets.US_ASCII));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Bad rule in .cgol file: " + e.getMessage());
+                }
+            }
+
+            if (unbounded) {
+                if (!HashLife.supportsRule(rule)) {
+                    throw new IOException("A plane can't run " + rule);
+                }
+                Plane plane = new Plane();
+                plane.rule = rule;
+                plane.generation = generation;
+                readChunks(plane, channel, cellsStart);
+                return plane;
+            }
+
+            Board board = new Board(width, height, topology);
+            board.generation = generation;
+            board.rule = rule;
+            long cellsEnd = readCells(board, board.cells, encoding, channel, cellsStart);
+            if (version >= 4 && rule.states > 2) {
+                readDying(board, channel, cellsEnd);
+            }
+            board.markAllChanged();
+            return board;
+        }
+    }
+
+    // The topology stored as byte b, if there is one.
+    static Topology topology(int b) throws IOException {
+        if (b < 0 || b >= Topology.values().length) {
+            throw new IOException("Unknown edge topology " + b);
+        }
+        return Topology.values()[b];
+    }
+
+    // Make sure a board of this size could actually be made. The limit is the same one
+    // Plane.toBoard has, which keeps every per-cell array (like a Board's ages) indexable.
+    static void checkSize(int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Bad board size " + width + "x" + height);
+        }
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IOException("A " + width + "x" + height + " board is too big");
+        }
+    }
+
+    // Read the chunks of a plane, starting from the count of them, and draw each one in.
+    static void readChunks(Plane plane, FileChannel channel, long start) throws IOException {
+        ByteBuffer count = ByteBuffer.allocate(8);
+        channel.read(count, start);
+        long chunks = count.getLong(0);
+        if (chunks < 0 || chunks > (channel.size() - start - 8) / CHUNK_BYTES) {
+            throw new EOFException("The file is too short for " + chunks + " chunks");
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+        long position = start + 8;
+        for (long i = 0; i < chunks; i++) {
+            chunk.clear();
+            while (chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) >= 0) {
+            }
+            position += CHUNK_BYTES;
+            long x = chunk.getInt(0) * (long) Plane.CHUNK_SIZE;
+            long y = chunk.getInt(4) * (long) Plane.CHUNK_SIZE;
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            for (int row = 0; row < Plane.CHUNK_SIZE; row++) {
+                plane.orWord(x, y + row, chunk.getLong(8 + row * 8), true);
+            }
+            chunk.order(ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    // Read cells into words, which is laid out like Board.cells, returning where in the file
+    // they end.
+    static long readCells(Board board, long[] words, int encoding, FileChannel channel, long cellsStart)
+            throws IOException {
+        if (encoding == PACKED) {
+            return readPacked(board, words, channel, cellsStart);
+        } else if (encoding == RUN_LENGTH) {
+            return readRunLength(board, words, channel, cellsStart);
+        }
+        throw new IOException("Unknown cell encoding " + encoding);
+    }
+
+    // Read which cells are dying, and then their states, and put them on the board.
+    static void readDying(Board board, FileChannel channel, long start) throws IOException {
+        ByteBuffer encoding = ByteBuffer.allocate(1);
+        if (channel.read(encoding, start) < 1) {
+            throw new EOFException("The dying cells are missing");
+        }
+        long[] dying = new long[board.cells.length];
+        long position = readCells(board, dying, encoding.get(0), channel, start + 1);
+
+        ByteBuffer states = ByteBuffer.allocate(1 << 16);
+        states.flip();
+        for (int y = 0; y < board.height; y++) {
+            int rowStart = board.wordIndex(0, y);
+            for (int w = 0; w < board.wordsPerRow; w++) {
+                for (long bits = dying[rowStart + w]; bits != 0; bits &= bits - 1) {
+                    if (!states.hasRemaining()) {
+                        states.clear();
+                        int read = channel.read(states, position);
+                        if (read <= 0) {
+                            throw new EOFException("The dying cells' states end early");
+                        }
+                        position += read;
+                        states.flip();
+                    }
+                    int state = states.get() & 0xFF;
+                    if (state < 2 || state >= board.rule.states) {
+                        throw new IOException("Bad dying state " + state);
+                    }
+                    board.setState((w << 6) + Long.numberOfTrailingZeros(bits), y, state);
+                }
+            }
+        }
+    }
+
+    static long readPacked(Board board, long[] words, FileChannel channel, long cellsStart) throws IOException {
+        // Map as many whole rows as fit in a window at once, and copy each row straight
+        // into the board with a single bulk get.
+        long rowBytes = board.wordsPerRow * 8L;
+        long end = cellsStart + board.height * rowBytes;
+        if (channel.size() < end) {
+            throw new EOFException("Bit-packed data ends early");
+        }
+        int rowsPerWindow = (int) Math.max(1, WINDOW_BYTES / rowBytes);
+        for (int y = 0; y < board.height; y += rowsPerWindow) {
+            int count = Math.min(rowsPerWindow, board.height - y);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, cellsStart + y * rowBytes,
+                    count * rowBytes);
+            LongBuffer rows = window.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            for (int row = y; row < y + count; row++) {
+                int rowStart = board.wordIndex(0, row);
+                rows.get(words, rowStart, board.wordsPerRow);
+                // Don't trust whatever's past the last cell.
+                words[rowStart + board.wordsPerRow - 1] &= board.wordMasks[board.wordsPerRow];
+            }
+        }
+        return end;
+    }
+
+    static long readRunLength(Board board, long[] words, FileChannel channel, long cellsStart) throws IOException {
+        long position = cellsStart;
+        long size = channel.size();
+        MappedByteBuffer window = null;
+
+        long total = (long) board.width * board.height;
+        long cell = 0;
+        boolean alive = false;
+        while (cell < total) {
+            // Read the next run length, mapping in the next window whenever the current
+            // one runs out.
+            long runLength = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (window == null || !window.hasRemaining()) {
+                    if (position >= size) {
+                        throw new EOFException("Run-length data ends early");
+                    }
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, size - position));
+                    position += window.capacity();
+                }
+                b = window.get();
+                if (shift > 56) {
+                    // Longer than any run could possibly be.
+                    throw new IOException("Bad run length");
+                }
+                runLength |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            runLength = Math.min(runLength, total - cell);
+            if (alive) {
+                // Fill in the run a row at a time, and each row a word at a time.
+                long end = cell + runLength;
+                while (cell < end) {
+                    int y = (int) (cell / board.width);
+                    int x = (int) (cell % board.width);
+                    int rowEnd = (int) Math.min(x + end - cell, board.width);
+                    int rowStart = board.wordIndex(0, y);
+                    cell += rowEnd - x;
+                    while (x < rowEnd) {
+                        int bits = Math.min(64 - (x & 63), rowEnd - x);
+                        words[rowStart + (x >> 6)] |= (bits == 64 ? -1L : (1L << bits) - 1) << x;
+                        x += bits;
+                    }
+                }
+            } else {
+                cell += runLength;
+            }
+            alive = !alive;
+        }
+        // Wherever the last run ended, less whatever was mapped past it.
+        return position - (window == null ? 0 : window.remaining());
+    }
+
+    // The original format, one byte per cell.
+    static Board readVersion1(File sourceFile) throws IOException {
+        try (FileInputStream fis = new FileInputStream(sourceFile);
+                BufferedInputStream bis = new BufferedInputStream(fis);) {
+            int rows = bis.read();
+            int columns = bis.read();
+            int wraparound = bis.read();
+            int generation = bis.read();
+            if (generation < 0) {
+                throw new EOFException("The file is too short to be a .cgol file");
+            }
+            checkSize(columns, rows);
+            Board board = new Board(columns, rows, topology(wraparound));
+            board.generation = generation;
+
+            for (int xPos = 0; xPos < columns; xPos++) {
+                for (int yPos = 0; yPos < rows; yPos++) {
+                    board.set(xPos, yPos, bis.read() == 0b1);
+                }
+            }
+            return board;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+import java.util.*;
+
+/*
+Notices when a board starts repeating itself, so a board that has settled down into still
+lifes and oscillators can be paused, or jumped ahead without stepping every generation.
+
+Each generation gets a 64-bit hash: every cell on the board has its own random-looking key
+for each state it can be in, and the hash is the keys of all of the cells that aren't dead
+XORed together (Zobrist hashing). The keys are worked out from the cell's index and state on
+the fly rather than stored. Since XOR undoes itself, stepping only has to XOR in the keys of
+the cells that were born or died, which are easy to find using the board's changed tiles.
+Dying cells change every step, so for rules that have them, the hash of each tile's dying
+cells is kept and worked out again whenever the tile changes.
+
+The last few thousand hashes are kept, and as soon as one comes up again the board has gone
+back to a state it was in before, so it'll repeat that stretch forever. The gap between the
+two is the period (1 for a board that's completely still), and the earlier one is the
+generation where the cycle was first reached.
+*/
+
+public class CycleDetector {
+    static final int DEFAULT_HISTORY = 4096;
+
+    // A cycle of period generations, first reached at generation start.
+    record Cycle(long period, long start) {
+    }
+
+    // The most recent hashes, oldest first from historyStart, along with where each one
+    // was last seen.
+    final int historySize;
+    final long[] historyHashes;
+    final long[] historyGenerations;
+    int historyStart = 0;
+    int historyCount = 0;
+
+    // Where to find each hash in the history: an open addressing table (with linear
+    // probing) of positions in historyHashes plus one, so that 0 is an empty slot. It's
+    // never more than half full, and since it's just ints, looking up a hash every step
+    // doesn't box anything.
+    final int[] lastSeen;
+    final int lastSeenMask;
+
+    // What the hash is a hash of. If the board has been swapped, edited, or moved along
+    // any other way than a single step since then, the hash has to be worked out again
+    // from scratch.
+    Board board;
+    long hash;
+    long[] dyingHashes;
+    long hashGeneration;
+    long hashModifications;
+    Rule hashRule;
+
+    // The cycle the board is known to be in, if any.
+    Cycle cycle = null;
+
+    public CycleDetector(int historySize) {
+        this.historySize = historySize;
+        historyHashes = new long[historySize];
+        historyGenerations = new long[historySize];
+        int tableSize = 2;
+        while (tableSize < historySize * 2) {
+            tableSize <<= 1;
+        }
+        lastSeen = new int[tableSize];
+        lastSeenMask = tableSize - 1;
+    }
+
+    // The key for the cell at index y * width + x being in the given state (1 for alive).
+    // This is SplitMix64's mixing function, which spreads consecutive numbers out into
+    // unrelated-looking ones.
+    static long key(long index, int state) {
+        long z = (index + ((long) (state - 1) << 32) + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // The keys of the living cells in bits, which is word w of row y, XORed together.
+    static long aliveKeys(Board board, long bits, int y, int w) {
+        long result = 0;
+        long rowStart = (long) y * board.width + (w << 6);
+        for (; bits != 0; bits &= bits - 1) {
+            result ^= key(rowStart + Long.numberOfTrailingZeros(bits), 1);
+        }
+        return result;
+    }
+
+    // The hash of just the dying cells in one tile, from scratch.
+    static long dyingHash(Board board, int tx, int ty) {
+        long result = 0;
+        boolean generations = board.rule.isGenerations();
+        long mask = board.wordMasks[tx + 1];
+        int lastRow = Math.min(board.height, (ty + 1) * Board.TILE_SIZE);
+        for (int y = ty * Board.TILE_SIZE; y < lastRow; y++) {
+            int wordIndex = board.wordIndex(tx << 6, y);
+            long rowStart = (long) y * board.width + (tx << 6);
+            // Generations rules keep track of which cells are dying, but otherwise any cell
+            // that isn't alive might be.
+            long dying = (generations ? board.dying[wordIndex] : -1L) & ~board.cells[wordIndex] & mask;
+            for (long bits = dying; bits != 0; bits &= bits - 1) {
+                long index = rowStart + Long.numberOfTrailingZeros(bits);
+                int state = board.ages[(int) index] & 0xFF;
+                if (state >= 2) {
+                    result ^= key(index, state);
+                }
+            }
+        }
+        return result;
+    }
+
+    // The cycle the board is in, or null if it isn't known to be in one (including if it's
+    // been changed since the cycle was found).
+    public Cycle current(Board board) {
+        return isUpToDate(board) ? cycle : null;
+    }
+
+    boolean isUpToDate(Board board) {
+        return board == this.board && board.generation == hashGeneration && board.modifications == hashModifications
+                && board.rule == hashRule;
+    }
+
+    // Forget everything and start again from the board as it is now.
+    void restart(Board board) {
+        this.board = board;
+        hash = 0;
+        for (int y = 0; y < board.height; y++) {
+            for (int w = 0; w < board.wordsPerRow; w++) {
+                hash ^= aliveKeys(board, board.cells[board.wordIndex(w << 6, y)] & board.wordMasks[w + 1], y, w);
+            }
+        }
+        dyingHashes = new long[board.tilesAcross * board.tilesDown];
+        if (board.hasDyingStates()) {
+            for (int tile = 0; tile < dyingHashes.length; tile++) {
+                dyingHashes[tile] = dyingHash(board, tile % board.tilesAcross, tile / board.tilesAcross);
+                hash ^= dyingHashes[tile];
+            }
+        }
+        hashGeneration = board.generation;
+        hashModifications = board.modifications;
+        hashRule = board.rule;
+        Arrays.fill(lastSeen, 0);
+        historyStart = 0;
+        historyCount = 0;
+        cycle = null;
+        remember();
+    }
+
+    // Call this right after each step of the board. Returns the cycle if this step is the
+    // one that found it.
+    public Cycle afterStep(Board board) {
+        boolean steppedOnce = board == this.board && board.generation == hashGeneration + 1
+                && board.modifications == hashModifications && board.rule == hashRule;
+        if (!steppedOnce) {
+            restart(board);
+            return null;
+        }
+        hashGeneration = board.generation;
+        if (cycle != null) {
+            // Nothing left to find until the board changes.
+            return null;
+        }
+
+        // Only tiles the step marked as changed can have any changed cells (tiles with
+        // dying cells always count as changed). The spare buffer still holds the generation
+        // before, so XORing the two gives exactly which cells were born or died.
+        long[] now = board.cells;
+        long[] before = board.next;
+        boolean dyingStates = board.hasDyingStates();
+        for (int ty = 0; ty < board.tilesDown; ty++) {
+            for (int tx = 0; tx < board.tilesAcross; tx++) {
+                int tile = ty * board.tilesAcross + tx;
+                if (!board.changedTiles[tile]) {
+                    continue;
+                }
+                int lastRow = Math.min(board.height, (ty + 1) * Board.TILE_SIZE);
+                for (int y = ty * Board.TILE_SIZE; y < lastRow; y++) {
+                    int index = board.wordIndex(tx << 6, y);
+                    hash ^= aliveKeys(board, (now[index] ^ before[index]) & board.wordMasks[tx + 1], y, tx);
+                }
+                if (dyingStates) {
+                    long dyingHash = dyingHash(board, tx, ty);
+                    hash ^= dyingHashes[tile] ^ dyingHash;
+                    dyingHashes[tile] = dyingHash;
+                }
+            }
+        }
+
+        int seen = lastSeen[slotFor(hash)];
+        if (seen != 0) {
+            long previous = historyGenerations[seen - 1];
+            cycle = new Cycle(board.generation - previous, previous);
+            return cycle;
+        }
+        remember();
+        return null;
+    }
+
+    // Add the current hash to the history, forgetting the oldest one if it's full.
+    void remember() {
+        if (historyCount == historySize) {
+            int oldest = slotFor(historyHashes[historyStart]);
+            // Only forget it if it hasn't been seen again since.
+            if (lastSeen[oldest] == historyStart + 1) {
+                forget(oldest);
+            }
+            historyStart = (historyStart + 1) % historySize;
+            historyCount--;
+        }
+        int position = (historyStart + historyCount) % historySize;
+        historyHashes[position] = hash;
+        historyGenerations[position] = hashGeneration;
+        historyCount++;
+        lastSeen[slotFor(hash)] = position + 1;
+    }
+
+    // The slot in lastSeen that holds the given hash, or the empty one where it would go.
+    // The hashes are random enough already that their low bits will do as the start.
+    int slotFor(long hash) {
+        int slot = (int) (hash ^ (hash >>> 32)) & lastSeenMask;
+        while (lastSeen[slot] != 0 && historyHashes[lastSeen[slot] - 1] != hash) {
+            slot = (slot + 1) & lastSeenMask;
+        }
+        return slot;
+    }
+
+    // Empty a slot in lastSeen. Any hashes after it in the same run that would've been
+    // put in it (or before it) get moved back into the gap, so that looking them up never
+    // stops short at an empty slot.
+    void forget(int slot) {
+        int gap = slot;
+        for (int i = (slot + 1) & lastSeenMask; lastSeen[i] != 0; i = (i + 1) & lastSeenMask) {
+            long moving = historyHashes[lastSeen[i] - 1];
+            int home = (int) (moving ^ (moving >>> 32)) & lastSeenMask;
+            if (((i - home) & lastSeenMask) >= ((i - gap) & lastSeenMask)) {
+                lastSeen[gap] = lastSeen[i];
+                gap = i;
+            }
+        }
+        lastSeen[gap] = 0;
+    }
+
+    // If the board is known to be in a cycle, move it ahead as many whole periods as fit
+    // in the given number of generations. That leaves every cell exactly as it was, so
+    // only the generation changes. Returns how many generations are left over, which still
+    // have to be stepped through the normal way (all of them, if there's no known cycle).
+    public long skipPeriods(Board board, long generations) {
+        Cycle known = current(board);
+        if (known == null) {
+            return generations;
+        }
+        long leftOver = generations % known.period();
+        board.generation += generations - leftOver;
+        hashGeneration = board.generation;
+        return leftOver;
+    }
+}
@@ -0,0 +1,503 @@
+import java.util.*;
+
+/*
+Gosper's HashLife algorithm, for skipping ahead huge numbers of generations at once.
+
+The universe is stored as a quadtree, where every node is a square 2^level cells across
+made of four half-size children. Identical squares are only ever stored once (every node
+goes through a canonicalizing hash table), and each node remembers what its centre looks
+like some number of generations later. Patterns with lots of repetition in space and time,
+like glider guns and breeders, then collapse into a small number of nodes whose futures only
+have to be worked out once.
+*/
+
+public class HashLife {
+    // A rough figure for how much memory one node takes up, used to turn a memory limit
+    // into a node count.
+    static final long BYTES_PER_NODE = 80;
+
+    static class Node {
+        final Node nw, ne, sw, se;
+        final int level;
+        final long population;
+        final int hash;
+
+        // The next node in the same hash table bucket.
+        Node next;
+
+        // The centre of this node, 2^resultStep generations in the future (once known).
+        Node result;
+        int resultStep = -1;
+
+        // Used by the garbage collector to tell which nodes are still reachable.
+        int mark;
+
+        // Makes a leaf, which is a single cell.
+        Node(boolean alive) {
+            nw = ne = sw = se = null;
+            level = 0;
+            population = alive ? 1 : 0;
+            hash = alive ? 1 : 0;
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se) {
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            level = nw.level + 1;
+            population = nw.population + ne.population + sw.population + se.population;
+            hash = hashOf(nw, ne, sw, se);
+        }
+    }
+
+    static final Node DEAD = new Node(false);
+    static final Node ALIVE = new Node(true);
+
+    // The canonicalizing table. Every node in existence is in here exactly once.
+    Node[] table = new Node[1 << 16];
+    int size = 0;
+
+    // When the table grows past this many nodes, the next call into the engine clears out
+    // everything that isn't reachable from the current universe.
+    long maxNodes;
+
+    // The empty node of each level, so they don't have to be looked up every time.
+    Node[] emptyNodes = new Node[64];
+
+    // The most generations advance moves in one go is 2 to the power of this. Taking a
+    // step that size needs a root 3 levels bigger, expanded once more, which keeps the
+    // root well inside emptyNodes and half its width inside a long.
+    static final int MAX_STEP = 58;
+
+    // The universe being simulated, along with where its top left corner is.
+    Node root;
+    long originX = 0;
+    long originY = 0;
+
+    int gcEpoch = 0;
+
+    // Nodes remember their futures, which depend on the rule, so each HashLife only ever
+    // runs one rule.
+    final Rule rule;
+
+    public HashLife(long memoryLimitBytes) {
+        this(memoryLimitBytes, Rule.CONWAY);
+    }
+
+    public HashLife(long memoryLimitBytes, Rule rule) {
+        this.rule = rule;
+        maxNodes = Math.max(1 << 16, memoryLimitBytes / BYTES_PER_NODE);
+        emptyNodes[0] = DEAD;
+        root = empty(3);
+    }
+
+    static int hashOf(Node nw, Node ne, Node sw, Node se) {
+        int hash = nw.hash;
+        hash = hash * 1000003 + ne.hash;
+        hash = hash * 1000003 + sw.hash;
+        hash = hash * 1000003 + se.hash;
+        return hash ^ (hash >>> 16);
+    }
+
+    // Find the one and only node with these children, creating it if it doesn't exist yet.
+    // This and empty are final because the constructor uses them, and it shouldn't be
+    // calling anything a subclass could change.
+    final Node node(Node nw, Node ne, Node sw, Node se) {
+        int hash = hashOf(nw, ne, sw, se);
+        int bucket = hash & (table.length - 1);
+        for (Node n = table[bucket]; n != null; n = n.next) {
+            if (n.nw == nw && n.ne == ne && n.sw == sw && n.se == se) {
+                return n;
+            }
+        }
+        Node n = new Node(nw, ne, sw, se);
+        n.next = table[bucket];
+        table[bucket] = n;
+        size++;
+        if (size > table.length * 3 / 4) {
+            resize(table.length * 2);
+        }
+        return n;
+    }
+
+    private void resize(int length) {
+        Node[] old = table;
+        table = new Node[length];
+        for (Node head : old) {
+            for (Node n = head; n != null;) {
+                Node following = n.next;
+                int bucket = n.hash & (length - 1);
+                n.next = table[bucket];
+                table[bucket] = n;
+                n = following;
+            }
+        }
+    }
+
+    final Node empty(int level) {
+        if (emptyNodes[level] == null) {
+            Node child = empty(level - 1);
+            emptyNodes[level] = node(child, child, child, child);
+        }
+        return emptyNodes[level];
+    }
+
+    // How many distinct nodes currently exist.
+    public int nodeCount() {
+        return size;
+    }
+
+    // Throw away every node that isn't part of the current universe. Remembered results
+    // are forgotten too, since they might point at nodes that are about to go.
+    public void collectGarbage() {
+        gcEpoch++;
+        markReachable(root);
+        for (Node empty : emptyNodes) {
+            if (empty != null) {
+                markReachable(empty);
+            }
+        }
+
+        Node[] old = table;
+        table = new Node[old.length];
+        size = 0;
+        for (Node head : old) {
+            for (Node n = head; n != null;) {
+                Node following = n.next;
+                n.result = null;
+                n.resultStep = -1;
+                if (n.mark == gcEpoch) {
+                    int bucket = n.hash & (table.length - 1);
+                    n.next = table[bucket];
+                    table[bucket] = n;
+                    size++;
+                }
+                n = following;
+            }
+        }
+    }
+
+    void markReachable(Node n) {
+        if (n.level == 0 || n.mark == gcEpoch) {
+            return;
+        }
+        n.mark = gcEpoch;
+        markReachable(n.nw);
+        markReachable(n.ne);
+        markReachable(n.sw);
+        markReachable(n.se);
+    }
+
+    // Only collect garbage between steps, since halfway through one there are nodes that
+    // are in use but not reachable from the root yet.
+    void collectGarbageIfNeeded() {
+        if (size > maxNodes) {
+            collectGarbage();
+        }
+    }
+
+    // Replace the universe with the contents of a board, with its top left cell at (0, 0).
+    public void load(Board board) {
+        int level = 2;
+        while ((1L << level) < Math.max(board.width, board.height)) {
+            level++;
+        }
+        root = build(board, 0, 0, level);
+        originX = 0;
+        originY = 0;
+    }
+
+    Node build(Board board, int x, int y, int level) {
+        if (x >= board.width || y >= board.height) {
+            return empty(level);
+        }
+        if (level == 0) {
+            return board.get(x, y) ? ALIVE : DEAD;
+        }
+        if (level == 6 && board.isEmpty(x >> 6, y, Math.min(64, board.height - y))) {
+            // A whole 64x64 block can be checked a word at a time, which saves visiting
+            // every cell of the (usually many) empty parts of the board.
+            return empty(level);
+        }
+        int half = 1 << (level - 1);
+        return node(build(board, x, y, level - 1), build(board, x + half, y, level - 1),
+                build(board, x, y + half, level - 1), build(board, x + half, y + half, level - 1));
+    }
+
+    // Copy the part of the universe that overlaps a board onto it, replacing what was there.
+    public void store(Board board) {
+        board.clear();
+        paint(board, root, originX, originY);
+    }
+
+    void paint(Board board, Node n, long x, long y) {
+        long size = 1L << n.level;
+        if (n.population == 0 || x >= board.width || y >= board.height || x + size <= 0 || y + size <= 0) {
+            return;
+        }
+        if (n.level == 0) {
+            board.set((int) x, (int) y, true);
+            return;
+        }
+        long half = size / 2;
+        paint(board, n.nw, x, y);
+        paint(board, n.ne, x + half, y);
+        paint(board, n.sw, x, y + half);
+        paint(board, n.se, x + half, y + half);
+    }
+
+    // Replace the universe with the contents of a plane, keeping its coordinates. Only the
+    // chunks that exist get visited, however far apart they are.
+    public void load(Plane plane) {
+        if (plane.chunks.isEmpty()) {
+            root = empty(3);
+            originX = 0;
+            originY = 0;
+            return;
+        }
+        long left = Long.MAX_VALUE;
+        long top = Long.MAX_VALUE;
+        long right = Long.MIN_VALUE;
+        long bottom = Long.MIN_VALUE;
+        for (long key : plane.chunks.keySet()) {
+            left = Math.min(left, Plane.keyX(key));
+            right = Math.max(right, Plane.keyX(key));
+            top = Math.min(top, Plane.keyY(key));
+            bottom = Math.max(bottom, Plane.keyY(key));
+        }
+        int level = 6;
+        while ((1L << (level - 6)) <= Math.max(right - left, bottom - top)) {
+            level++;
+        }
+        root = build(plane, new ArrayList<>(plane.chunks.keySet()), left, top, level);
+        originX = left * Plane.CHUNK_SIZE;
+        originY = top * Plane.CHUNK_SIZE;
+    }
+
+    // The node for the square 2^level cells across with its top left corner at chunk (cx,
+    // cy), given the keys of every chunk inside it.
+    Node build(Plane plane, List<Long> keys, long cx, long cy, int level) {
+        if (keys.isEmpty()) {
+            return empty(level);
+        }
+        if (level == 6) {
+            return build(plane.chunks.get(keys.get(0)).cells, 0, 0, 6);
+        }
+        long half = 1L << (level - 7);
+        List<List<Long>> quarters = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                new ArrayList<>());
+        for (long key : keys) {
+            int east = Plane.keyX(key) - cx >= half ? 1 : 0;
+            int south = Plane.keyY(key) - cy >= half ? 2 : 0;
+            quarters.get(east + south).add(key);
+        }
+        return node(build(plane, quarters.get(0), cx, cy, level - 1),
+                build(plane, quarters.get(1), cx + half, cy, level - 1),
+                build(plane, quarters.get(2), cx, cy + half, level - 1),
+                build(plane, quarters.get(3), cx + half, cy + half, level - 1));
+    }
+
+    // The node for part of a chunk's rows.
+    Node build(long[] rows, int x, int y, int level) {
+        if (level == 0) {
+            return ((rows[y] >>> x) & 1L) != 0 ? ALIVE : DEAD;
+        }
+        int size = 1 << level;
+        long mask = size == 64 ? -1L : ((1L << size) - 1) << x;
+        boolean empty = true;
+        for (int row = y; row < y + size && empty; row++) {
+            empty = (rows[row] & mask) == 0;
+        }
+        if (empty) {
+            return empty(level);
+        }
+        int half = size / 2;
+        return node(build(rows, x, y, level - 1), build(rows, x + half, y, level - 1),
+                build(rows, x, y + half, level - 1), build(rows, x + half, y + half, level - 1));
+    }
+
+    // Replace the contents of a plane with the universe.
+    public void store(Plane plane) {
+        plane.clear();
+        paint(plane, root, originX, originY);
+    }
+
+    void paint(Plane plane, Node n, long x, long y) {
+        if (n.population == 0) {
+            return;
+        }
+        if (n.level == 0) {
+            plane.set(x, y, true);
+            return;
+        }
+        long half = 1L << (n.level - 1);
+        paint(plane, n.nw, x, y);
+        paint(plane, n.ne, x + half, y);
+        paint(plane, n.sw, x, y + half);
+        paint(plane, n.se, x + half, y + half);
+    }
+
+    // The centre of a node, as a node one level down.
+    Node centre(Node n) {
+        return node(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+    }
+
+    // The node one level up with n in its centre and empty space around it.
+    Node expand(Node n) {
+        Node e = empty(n.level - 1);
+        return node(node(e, e, e, n.nw), node(e, e, n.ne, e), node(e, n.sw, e, e), node(n.se, e, e, e));
+    }
+
+    // The centre of n (one level down), 2^step generations later. step can be at most
+    // n.level - 2, since that's as far as anything from outside n could travel.
+    Node successor(Node n, int step) {
+        if (n.population == 0) {
+            return n.nw;
+        }
+        if (n.resultStep == step) {
+            return n.result;
+        }
+
+        Node result;
+        if (n.level == 2) {
+            result = baseCase(n);
+        } else {
+            // Split n into 9 overlapping squares, each half its size.
+            Node n00 = n.nw;
+            Node n01 = node(n.nw.ne, n.ne.nw, n.nw.se, n.ne.sw);
+            Node n02 = n.ne;
+            Node n10 = node(n.nw.sw, n.nw.se, n.sw.nw, n.sw.ne);
+            Node n11 = node(n.nw.se, n.ne.sw, n.sw.ne, n.se.nw);
+            Node n12 = node(n.ne.sw, n.ne.se, n.se.nw, n.se.ne);
+            Node n20 = n.sw;
+            Node n21 = node(n.sw.ne, n.se.nw, n.sw.se, n.se.sw);
+            Node n22 = n.se;
+
+            // At full speed, both halves of the trip are taken by stepping. Otherwise
+            // the first half just takes the centres without moving any time forwards.
+            boolean fullSpeed = step == n.level - 2;
+            int half = step - 1;
+            Node c00 = fullSpeed ? successor(n00, half) : centre(n00);
+            Node c01 = fullSpeed ? successor(n01, half) : centre(n01);
+            Node c02 = fullSpeed ? successor(n02, half) : centre(n02);
+            Node c10 = fullSpeed ? successor(n10, half) : centre(n10);
+            Node c11 = fullSpeed ? successor(n11, half) : centre(n11);
+            Node c12 = fullSpeed ? successor(n12, half) : centre(n12);
+            Node c20 = fullSpeed ? successor(n20, half) : centre(n20);
+            Node c21 = fullSpeed ? successor(n21, half) : centre(n21);
+            Node c22 = fullSpeed ? successor(n22, half) : centre(n22);
+
+            int secondStep = fullSpeed ? half : step;
+            result = node(successor(node(c00, c01, c10, c11), secondStep),
+                    successor(node(c01, c02, c11, c12), secondStep),
+                    successor(node(c10, c11, c20, c21), secondStep),
+                    successor(node(c11, c12, c21, c22), secondStep));
+        }
+
+        n.result = result;
+        n.resultStep = step;
+        return result;
+    }
+
+    // A 4x4 node, stepped once by hand to get its 2x2 centre.
+    Node baseCase(Node n) {
+        int bits = 0;
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                if (cellAt(n, x, y)) {
+                    bits |= 1 << (y * 4 + x);
+                }
+            }
+        }
+        return node(nextCell(bits, 1, 1), nextCell(bits, 2, 1), nextCell(bits, 1, 2), nextCell(bits, 2, 2));
+    }
+
+    // Whether the cell at (x, y) of a 4x4 grid of bits is alive next generation.
+    Node nextCell(int bits, int x, int y) {
+        int neighboursAlive = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if ((dx != 0 || dy != 0) && (bits & (1 << ((y + dy) * 4 + x + dx))) != 0) {
+                    neighboursAlive++;
+                }
+            }
+        }
+        boolean alive = (bits & (1 << (y * 4 + x))) != 0;
+        return (alive ? rule.survive : rule.birth)[neighboursAlive] ? ALIVE : DEAD;
+    }
+
+    static boolean cellAt(Node n, int x, int y) {
+        while (n.level > 0) {
+            int half = 1 << (n.level - 1);
+            boolean east = x >= half;
+            boolean south = y >= half;
+            n = south ? (east ? n.se : n.sw) : (east ? n.ne : n.nw);
+            if (east) {
+                x -= half;
+            }
+            if (south) {
+                y -= half;
+            }
+        }
+        return n.population != 0;
+    }
+
+    // Move the universe forwards on an infinite plane, where nothing ever wraps around and
+    // patterns are free to grow as far as they like.
+    public void advance(long generations) {
+        while (generations > 0) {
+            int step = Math.min(MAX_STEP, 63 - Long.numberOfLeadingZeros(generations));
+
+            // Make sure there's enough empty space around the pattern that it can't escape
+            // the root while it moves, and that the root is big enough to take a step this
+            // size. Each expansion keeps the pattern centred.
+            while (root.level < step + 3 || centre(centre(root)).population != root.population) {
+                if (root.level >= MAX_STEP + 3) {
+                    // Any bigger and its corners would be past what a long can hold.
+                    throw new IllegalStateException("The pattern has spread too far to keep stepping");
+                }
+                long half = 1L << (root.level - 1);
+                root = expand(root);
+                originX -= half;
+                originY -= half;
+            }
+            collectGarbageIfNeeded();
+
+            // The successor of the expanded root covers exactly the same area as the root.
+            root = successor(expand(root), step);
+            generations -= 1L << step;
+        }
+    }
+
+    // Move the universe forwards when it's a wrapped-around (torus) board that's a square
+    // power of two across. The root is the whole board, with its origin at (0, 0).
+    public void advanceTorus(long generations) {
+        int level = root.level;
+        while (generations > 0) {
+            collectGarbageIfNeeded();
+            int step = Math.min(level - 1, 63 - Long.numberOfLeadingZeros(generations));
+
+            // A 2x2 tiling of the board behaves just like the board wrapping around. Its
+            // centre, once stepped, is the next board shifted by half its size in each
+            // direction, so swapping the quadrants diagonally puts everything back.
+            Node tiled = node(root, root, root, root);
+            Node shifted = successor(tiled, step);
+            root = node(shifted.se, shifted.sw, shifted.ne, shifted.nw);
+            generations -= 1L << step;
+        }
+    }
+
+    // Whether HashLife can run a rule at all. It only knows about two states and the 8
+    // cells around each cell, and it assumes empty space stays empty, which isn't true for
+    // rules where cells are born with no neighbours (B0).
+    static boolean supportsRule(Rule rule) {
+        return rule.isLifeLike() && !rule.birth[0];
+    }
+
+    // Whether advanceTorus works on boards of this size, topology and rule.
+    static boolean supportsTorus(Board board) {
+        return supportsRule(board.rule) && board.topology == Topology.TORUS && board.width == board.height && board.width >= 4
+                && Integer.bitCount(board.width) == 1;
+    }
+}
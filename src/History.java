@@ -0,0 +1,496 @@
+import java.util.*;
+
+/*
+Remembers where the board has been, so it can be stepped backwards, or scrubbed back and forth
+through as many generations as fit in the memory it's given.
+
+Every time the board changes (by stepping, being edited, jumping ahead and so on), a frame is
+recorded holding the XOR of the board before and after. Only the tiles that changed are
+stored, and only the rows of those that actually differ. XOR undoes itself, so the same delta
+takes the board forwards or backwards, and moving by one frame costs as much as what changed
+in it, however big the board is. To tell what changed, the history keeps its own copy of the
+board as of the current frame, and compares the board's changed tiles against it.
+
+Going a long way back would mean undoing every frame along the way, so every so often a frame
+also gets a keyframe: the whole board, stored as a delta from an empty one. A new keyframe is
+made once the deltas since the last one add up to more than it took, so getting to any frame
+never costs much more than a couple of keyframes' worth of work. When the frames go over the
+memory budget, the oldest keyframe and everything up to the next one are thrown away. (The copy
+of the board isn't counted, since it doesn't grow.)
+
+Rules with dying states have their dying cells and ages remembered the same way.
+
+Only the simulation thread uses this, apart from the range of generations it covers, which
+is there for the display.
+*/
+
+public class History {
+    static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    // Keyframes are at least this far apart (in bytes of deltas), so a board with only a
+    // few changes a generation doesn't spend all its time making them.
+    static final long MIN_KEYFRAME_GAP = 64 * 1024;
+
+    // Roughly what a Frame costs on top of its deltas.
+    static final long FRAME_BYTES = 64;
+
+    // The XOR of two states of a board. cells holds, for each tile that differs, the tile's
+    // index, then a mask of which of its 64 rows differ, then the XOR of each of those rows
+    // in order. dying is the same for Generations rules' dying cells. ages holds one long
+    // for each cell whose age differs: its index shifted up 8 bits, and the XOR of the two
+    // ages in the bottom 8.
+    record Delta(long[] cells, long[] dying, long[] ages) {
+        static final Delta EMPTY = new Delta(new long[0], new long[0], new long[0]);
+
+        long bytes() {
+            return 8L * (cells.length + dying.length + ages.length) + 48;
+        }
+    }
+
+    // One state the board was in, along with the delta from the frame before it (empty for
+    // the oldest one), and possibly a keyframe.
+    static class Frame {
+        final long generation;
+        Delta delta;
+        Delta keyframe;
+
+        Frame(long generation, Delta delta) {
+            this.generation = generation;
+            this.delta = delta;
+        }
+
+        long bytes() {
+            return FRAME_BYTES + delta.bytes() + (keyframe == null ? 0 : keyframe.bytes());
+        }
+    }
+
+    // A growable list of longs, for building deltas.
+    static class Longs {
+        long[] values = new long[64];
+        int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    long budget;
+    final ArrayList<Frame> frames = new ArrayList<>();
+    // Which frame the board is at.
+    int position = -1;
+    // How much memory the frames take up, and how much of it has been deltas since the
+    // last keyframe.
+    long bytes = 0;
+    long bytesSinceKeyframe = 0;
+    long lastKeyframeBytes = 0;
+
+    // The board being remembered, and a copy of it as of the current frame.
+    Board board;
+    // A board that turned out to be too big to remember anything about in the budget.
+    Board skipped;
+    long[] shadowCells;
+    long[] shadowDying;
+    byte[] shadowAges;
+
+    // Where deltas get built up before being copied out at the right size.
+    final Longs scratchCells = new Longs();
+    final Longs scratchDying = new Longs();
+    final Longs scratchAges = new Longs();
+
+    // The generations that can be gone back and forth between, for the display.
+    volatile long oldestGeneration = 0;
+    volatile long newestGeneration = 0;
+
+    public History(long budget) {
+        this.budget = budget;
+    }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+        skipped = null;
+        if (budget <= 0) {
+            forget();
+        } else {
+            evict();
+        }
+    }
+
+    // Throw everything away.
+    void forget() {
+        board = null;
+        frames.clear();
+        position = -1;
+        bytes = 0;
+        shadowCells = null;
+        shadowDying = null;
+        shadowAges = null;
+        oldestGeneration = 0;
+        newestGeneration = 0;
+    }
+
+    // Call this whenever the board might have changed. If it has, a new frame is added for
+    // it.
+    public void record(Board board) {
+        if (budget <= 0 || board == skipped) {
+            return;
+        }
+        if (board != this.board) {
+            start(board);
+            return;
+        }
+
+        // Usually the board has been stepped once or edited since the last frame, and only
+        // the tiles it marked as changed need looking at. Anything else (like jumping ahead
+        // many generations) could have changed any tile.
+        Frame current = frames.get(position);
+        long generations = board.generation - current.generation;
+        boolean allTiles = generations < 0 || generations > 1;
+        Delta delta = diff(board, allTiles);
+        if (delta == null) {
+            if (generations == 0) {
+                return;
+            }
+            delta = Delta.EMPTY;
+        }
+
+        // Anything after the current frame is a future that isn't going to happen now.
+        while (frames.size() > position + 1) {
+            bytes -= frames.remove(frames.size() - 1).bytes();
+        }
+
+        Frame frame = new Frame(board.generation, delta);
+        frames.add(frame);
+        position++;
+        bytes += frame.bytes();
+        bytesSinceKeyframe += delta.bytes();
+        if (bytesSinceKeyframe >= Math.max(lastKeyframeBytes, MIN_KEYFRAME_GAP)) {
+            addKeyframe(frame);
+        }
+        evict();
+    }
+
+    // Start remembering a new board, with it as it is now as the only frame.
+    void start(Board board) {
+        forget();
+        this.board = board;
+        shadowCells = new long[board.cells.length];
+        Frame frame = new Frame(board.generation, Delta.EMPTY);
+        frames.add(frame);
+        position = 0;
+        bytes = frame.bytes();
+        addKeyframe(frame);
+        // Bring the copy up to date from the keyframe.
+        xor(frame.keyframe, null);
+        updateRange();
+    }
+
+    void addKeyframe(Frame frame) {
+        frame.keyframe = keyframe(board);
+        bytes += frame.keyframe.bytes();
+        lastKeyframeBytes = frame.keyframe.bytes();
+        bytesSinceKeyframe = 0;
+    }
+
+    void updateRange() {
+        oldestGeneration = frames.get(0).generation;
+        newestGeneration = frames.get(frames.size() - 1).generation;
+    }
+
+    // Throw away the oldest frames until everything fits in the budget again. Frames can
+    // only go a keyframe at a time, since the oldest frame left needs one to start from.
+    // The range is brought up to date either way.
+    void evict() {
+        while (bytes > budget && position > 0) {
+            int next = 1;
+            while (next < frames.size() && frames.get(next).keyframe == null) {
+                next++;
+            }
+            if (next > position) {
+                // There isn't another keyframe before where the board is now, so make
+                // one there. If keyframes alone take up most of the budget, that would
+                // happen every step, so give up on this board instead.
+                if (lastKeyframeBytes * 2 > budget) {
+                    Board tooBig = board;
+                    forget();
+                    skipped = tooBig;
+                    return;
+                }
+                next = position;
+                addKeyframe(frames.get(position));
+            }
+            for (int i = 0; i < next; i++) {
+                bytes -= frames.get(i).bytes();
+            }
+            frames.subList(0, next).clear();
+            position -= next;
+            // The new oldest frame doesn't need a delta from the one before any more.
+            Frame oldest = frames.get(0);
+            bytes -= oldest.delta.bytes() - Delta.EMPTY.bytes();
+            oldest.delta = Delta.EMPTY;
+        }
+        if (!frames.isEmpty()) {
+            updateRange();
+        }
+    }
+
+    // Go back one frame, if there is one.
+    public void stepBack(Board board) {
+        if (board == this.board && position > 0) {
+            moveTo(position - 1);
+        }
+    }
+
+    // Go to the last frame at or before the given generation (or the oldest frame, if it's
+    // before all of them).
+    public void seek(Board board, long generation) {
+        if (board != this.board || frames.isEmpty()) {
+            return;
+        }
+        int low = 0;
+        int high = frames.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (frames.get(middle).generation <= generation) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        moveTo(low);
+    }
+
+    // Put the board back how it was at the target frame, either by going through the
+    // frames in between, or starting from a keyframe if that's less work.
+    void moveTo(int target) {
+        if (target == position) {
+            return;
+        }
+
+        long direct = 0;
+        for (int i = Math.min(position, target) + 1; i <= Math.max(position, target); i++) {
+            direct += frames.get(i).delta.bytes();
+        }
+        int keyframe = target;
+        while (frames.get(keyframe).keyframe == null) {
+            keyframe--;
+        }
+        long fromKeyframe = frames.get(keyframe).keyframe.bytes() + 8L * board.cells.length;
+        for (int i = keyframe + 1; i <= target; i++) {
+            fromKeyframe += frames.get(i).delta.bytes();
+        }
+
+        if (fromKeyframe < direct) {
+            restore(frames.get(keyframe).keyframe);
+            position = keyframe;
+        }
+        while (position < target) {
+            position++;
+            xor(frames.get(position).delta, board);
+        }
+        while (position > target) {
+            xor(frames.get(position).delta, board);
+            position--;
+        }
+
+        board.generation = frames.get(position).generation;
+        // The births and deaths were for a step that's been undone.
+        board.births = 0;
+        board.deaths = 0;
+        board.modifications++;
+    }
+
+    // Empty the board (and the copy of it), then fill it back in from a keyframe.
+    void restore(Delta keyframe) {
+        Arrays.fill(board.cells, 0);
+        Arrays.fill(shadowCells, 0);
+        if (board.dying != null) {
+            Arrays.fill(board.dying, 0);
+            Arrays.fill(board.ages, (byte) 0);
+        }
+        if (shadowDying != null) {
+            Arrays.fill(shadowDying, 0);
+            Arrays.fill(shadowAges, (byte) 0);
+        }
+        xor(keyframe, board);
+        board.countPopulation();
+        Arrays.fill(board.changedTiles, true);
+    }
+
+    // XOR a delta into the copy of the board, and into the board itself if it's given
+    // (keeping its population counts and changed tiles up to date).
+    void xor(Delta delta, Board target) {
+        long[] cells = delta.cells();
+        for (int i = 0; i < cells.length;) {
+            int tile = (int) cells[i++];
+            long rows = cells[i++];
+            for (long bits = rows; bits != 0; bits &= bits - 1) {
+                int index = tileWord(tile, Long.numberOfTrailingZeros(bits));
+                long flip = cells[i++];
+                shadowCells[index] ^= flip;
+                if (target != null) {
+                    long before = target.cells[index];
+                    target.cells[index] ^= flip;
+                    int change = Long.bitCount(target.cells[index]) - Long.bitCount(before);
+                    target.tilePopulation[tile] += change;
+                    target.population += change;
+                }
+            }
+            if (target != null) {
+                target.changedTiles[tile] = true;
+            }
+        }
+
+        long[] dying = delta.dying();
+        if (dying.length > 0 || delta.ages().length > 0) {
+            prepareDying(target);
+        }
+        for (int i = 0; i < dying.length;) {
+            int tile = (int) dying[i++];
+            long rows = dying[i++];
+            for (long bits = rows; bits != 0; bits &= bits - 1) {
+                int index = tileWord(tile, Long.numberOfTrailingZeros(bits));
+                long flip = dying[i++];
+                shadowDying[index] ^= flip;
+                if (target != null) {
+                    target.dying[index] ^= flip;
+                }
+            }
+            if (target != null) {
+                target.changedTiles[tile] = true;
+            }
+        }
+        for (long entry : delta.ages()) {
+            int index = (int) (entry >>> 8);
+            byte flip = (byte) entry;
+            shadowAges[index] ^= flip;
+            if (target != null) {
+                target.ages[index] ^= flip;
+                target.changedTiles[target.tileIndex(index % target.width, index / target.width)] = true;
+            }
+        }
+    }
+
+    // Make sure there's somewhere to put dying cells and ages, in the copy and (if it's
+    // given) the board.
+    void prepareDying(Board target) {
+        if (shadowDying == null) {
+            shadowDying = new long[board.cells.length];
+            shadowAges = new byte[board.width * board.height];
+        }
+        if (target != null && target.dying == null) {
+            target.ages = new byte[target.width * target.height];
+            target.dying = new long[target.cells.length];
+            target.dyingNext = new long[target.cells.length];
+            target.agesRule = target.rule;
+        }
+    }
+
+    // The index in cells of row r of a tile.
+    int tileWord(int tile, int r) {
+        int tx = tile % board.tilesAcross;
+        int ty = tile / board.tilesAcross;
+        return board.wordIndex(tx << 6, ty * Board.TILE_SIZE + r);
+    }
+
+    // What's changed on the board since the copy was made (just in the changed tiles,
+    // unless allTiles is set), or null if nothing has. The copy is brought up to date as
+    // it goes.
+    Delta diff(Board board, boolean allTiles) {
+        scratchCells.size = 0;
+        scratchDying.size = 0;
+        scratchAges.size = 0;
+        boolean dyingStates = board.dying != null;
+        if (dyingStates) {
+            prepareDying(null);
+        }
+        for (int tile = 0; tile < board.changedTiles.length; tile++) {
+            if (allTiles || board.changedTiles[tile]) {
+                diffTile(board, board.cells, shadowCells, tile, scratchCells);
+                if (dyingStates) {
+                    diffTile(board, board.dying, shadowDying, tile, scratchDying);
+                    diffAges(board, board.ages, shadowAges, tile, scratchAges);
+                }
+            }
+        }
+        if (scratchCells.size == 0 && scratchDying.size == 0 && scratchAges.size == 0) {
+            return null;
+        }
+        return new Delta(scratchCells.toArray(), scratchDying.toArray(), scratchAges.toArray());
+    }
+
+    // The whole board, as a delta from an empty one.
+    Delta keyframe(Board board) {
+        Longs cells = scratchCells;
+        Longs dying = scratchDying;
+        Longs ages = scratchAges;
+        cells.size = 0;
+        dying.size = 0;
+        ages.size = 0;
+        for (int tile = 0; tile < board.changedTiles.length; tile++) {
+            // Only tiles with living cells in them can have any cells to store.
+            if (board.tilePopulation[tile] > 0) {
+                diffTile(board, board.cells, null, tile, cells);
+            }
+            if (board.dying != null) {
+                diffTile(board, board.dying, null, tile, dying);
+                diffAges(board, board.ages, null, tile, ages);
+            }
+        }
+        return new Delta(cells.toArray(), dying.toArray(), ages.toArray());
+    }
+
+    // Add the XOR of one tile of now and against (or just now, if against is null) to out,
+    // if there's any difference. against is updated to match now.
+    static void diffTile(Board board, long[] now, long[] against, int tile, Longs out) {
+        int tx = tile % board.tilesAcross;
+        int ty = tile / board.tilesAcross;
+        long mask = board.wordMasks[tx + 1];
+        int rows = Math.min(Board.TILE_SIZE, board.height - ty * Board.TILE_SIZE);
+        int start = out.size;
+        out.add(tile);
+        out.add(0);
+        long rowMask = 0;
+        int index = board.wordIndex(tx << 6, ty * Board.TILE_SIZE);
+        for (int r = 0; r < rows; r++, index += board.stride) {
+            long flip = (now[index] ^ (against == null ? 0 : against[index])) & mask;
+            if (flip != 0) {
+                rowMask |= 1L << r;
+                out.add(flip);
+                if (against != null) {
+                    against[index] ^= flip;
+                }
+            }
+        }
+        if (rowMask == 0) {
+            out.size = start;
+        } else {
+            out.values[start + 1] = rowMask;
+        }
+    }
+
+    // The same for the ages of the cells in a tile.
+    static void diffAges(Board board, byte[] now, byte[] against, int tile, Longs out) {
+        int tx = tile % board.tilesAcross;
+        int ty = tile / board.tilesAcross;
+        int lastColumn = Math.min(board.width, (tx + 1) << 6);
+        int lastRow = Math.min(board.height, (ty + 1) * Board.TILE_SIZE);
+        for (int y = ty * Board.TILE_SIZE; y < lastRow; y++) {
+            for (int index = y * board.width + (tx << 6); index < y * board.width + lastColumn; index++) {
+                int flip = (now[index] ^ (against == null ? 0 : against[index])) & 0xFF;
+                if (flip != 0) {
+                    out.add(((long) index << 8) | flip);
+                    if (against != null) {
+                        against[index] ^= (byte) flip;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+Counts how long something takes, in buckets that get wider as the times get longer, so a few
+hundred of them cover everything from a nanosecond to a few hundred years. Every power of two
+is split into 8 buckets, so each time is known to within an eighth, which is plenty for
+telling a 2ms step from a 3ms one.
+
+Recording is just two atomic adds, so it's cheap enough to do on every step, and the counts
+can be read from another thread (like the display, or a JMX client) while they're being
+recorded to. Taking a copy of the counts and later asking for a summary since that copy gives
+the times over just that stretch.
+*/
+
+public class LatencyHistogram {
+    static final int SUB_BUCKETS = 8;
+    static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    // How many times fell in each bucket. The extra entry on the end is the total of all
+    // the times, for working out the mean.
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+
+    // Times in milliseconds, for showing to people.
+    public record Summary(long count, double meanMillis, double medianMillis, double p99Millis, double maxMillis) {
+    }
+
+    // Anything under 8ns gets a bucket of its own. After that, the bucket is picked by the
+    // highest set bit (which power of two it's in) and the three bits below it (which
+    // eighth of that power of two).
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int power = 63 - Long.numberOfLeadingZeros(nanos);
+        int eighth = (int) (nanos >>> (power - 3)) & (SUB_BUCKETS - 1);
+        return (power - 2) * SUB_BUCKETS + eighth;
+    }
+
+    // The longest time that goes in a bucket.
+    static long bucketTop(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int power = bucket / SUB_BUCKETS + 2;
+        int eighth = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + eighth + 1) << (power - 3)) - 1;
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        counts.addAndGet(BUCKETS, nanos);
+    }
+
+    // A copy of the counts as they are now, to pass to summarySince() later.
+    public long[] counts() {
+        long[] copy = new long[BUCKETS + 1];
+        for (int i = 0; i <= BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    // Everything recorded so far.
+    public Summary summary() {
+        return summarySince(null);
+    }
+
+    // Everything recorded since the given copy of the counts was taken (or since the start,
+    // if it's null). Percentiles and the max are the top of whichever bucket they fall in.
+    public Summary summarySince(long[] earlier) {
+        long[] now = counts();
+        if (earlier != null) {
+            for (int i = 0; i <= BUCKETS; i++) {
+                now[i] -= earlier[i];
+            }
+        }
+
+        long total = 0;
+        int highest = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += now[i];
+            if (now[i] > 0) {
+                highest = i;
+            }
+        }
+        if (total == 0) {
+            return new Summary(0, 0, 0, 0, 0);
+        }
+        return new Summary(total, now[BUCKETS] / 1e6 / total, percentile(now, total, 0.5) / 1e6,
+                percentile(now, total, 0.99) / 1e6, bucketTop(highest) / 1e6);
+    }
+
+    // The top of the bucket that the given fraction of the times are at or under.
+    static long percentile(long[] counts, long total, double fraction) {
+        long wanted = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= wanted) {
+                return bucketTop(i);
+            }
+        }
+        return bucketTop(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,569 @@
+import java.io.*;
+import java.util.*;
+
+/*
+Reading and writing the pattern formats used by other Life programs:
+    RLE (.rle), the most common one, which run-length encodes the cells a row at a time.
+    Plaintext (.cells), which just draws the pattern with 'O' and '.' characters.
+    Macrocell (.mc), Golly's quadtree format, which is great for huge repetitive patterns.
+
+Patterns are read a character at a time and drawn straight onto a board or an unbounded
+plane as they go, with their top left corner at a chosen offset. Anything that lands off
+the edge of a board is left out; a plane takes the whole thing. If the file says which
+rule it's for (the "rule =" in an RLE header, or a Macrocell #R line), the board is
+switched to that rule, so the pattern behaves the way it was meant to. Multi-state RLE,
+where 'A' is alive and 'B' onwards are the dying states of a Generations rule, comes in
+with its dying cells at the right ages. RLE and plaintext only need a few variables of
+extra memory however big the file is. Macrocell can't avoid keeping its table of nodes,
+since any node can be reused later on, but that table is kept in plain arrays and the
+cells still go straight onto the board.
+*/
+
+public class PatternIO {
+    // How long lines in written RLE files are allowed to get, which is what other
+    // programs expect.
+    static final int RLE_LINE_LENGTH = 70;
+
+    // Whether a file name looks like one of the formats in here.
+    public static boolean isPatternFile(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".rle") || name.endsWith(".cells") || name.endsWith(".mc");
+    }
+
+    // Draw the pattern in a file onto the board, picking the format from its extension.
+    public static void read(File file, Board board, int offsetX, int offsetY) throws IOException {
+        read(file, new BoardTarget(board), offsetX, offsetY);
+    }
+
+    // The same, but onto an unbounded plane, so none of the pattern gets left out however
+    // big it is.
+    public static void read(File file, Plane plane, long offsetX, long offsetY) throws IOException {
+        read(file, new PlaneTarget(plane), offsetX, offsetY);
+    }
+
+    static void read(File file, Target target, long offsetX, long offsetY) throws IOException {
+        String name = file.getName().toLowerCase();
+        try (Reader in = new FileReader(file)) {
+            if (name.endsWith(".rle")) {
+                readRle(in, target, offsetX, offsetY);
+            } else if (name.endsWith(".cells")) {
+                readPlaintext(in, target, offsetX, offsetY);
+            } else if (name.endsWith(".mc")) {
+                readMacrocell(in, target, offsetX, offsetY);
+            } else {
+                throw new IOException("Not a pattern file: " + file.getName());
+            }
+        }
+    }
+
+    // Write the board to a file, picking the format from its extension.
+    public static void write(File file, Board board) throws IOException {
+        String name = file.getName().toLowerCase();
+        try (Writer out = new BufferedWriter(new FileWriter(file))) {
+            if (name.endsWith(".rle")) {
+                writeRle(out, board);
+            } else if (name.endsWith(".cells")) {
+                writePlaintext(out, board);
+            } else if (name.endsWith(".mc")) {
+                writeMacrocell(out, board);
+            } else {
+                throw new IOException("Not a pattern file: " + file.getName());
+            }
+        }
+    }
+
+    // Somewhere a pattern gets drawn.
+    interface Target {
+        // Give count cells starting at (x, y) and going right the same state: 1 for alive,
+        // or 2 and up for dying. Dead cells are never drawn, so whatever was under them
+        // stays.
+        void drawRun(long x, long y, long count, int state);
+
+        // Whether any of the size by size square of cells at (x, y) would actually be drawn.
+        boolean overlaps(long x, long y, long size);
+
+        // Switch to the rule the pattern file is for.
+        void useRule(Rule rule);
+    }
+
+    // Draws onto a board, leaving out anything that's off its edges.
+    record BoardTarget(Board board) implements Target {
+        @Override
+        public void drawRun(long x, long y, long count, int state) {
+            if (y < 0 || y >= board.height) {
+                return;
+            }
+            long from = Math.max(0, x);
+            long to = Math.min(board.width, x + count);
+            if (from >= to) {
+                return;
+            }
+            if (state == 1) {
+                board.setRun((int) from, (int) y, (int) (to - from));
+            } else if (state >= 2) {
+                for (long cell = from; cell < to; cell++) {
+                    board.setState((int) cell, (int) y, state);
+                }
+            }
+        }
+
+        @Override
+        public boolean overlaps(long x, long y, long size) {
+            return x < board.width && y < board.height && x + size > 0 && y + size > 0;
+        }
+
+        @Override
+        public void useRule(Rule rule) {
+            board.rule = rule;
+        }
+    }
+
+    // Draws onto an unbounded plane, where everything fits. Planes don't have dying
+    // states, so those are left dead, and they only take the rules HashLife can run, so
+    // any other rule leaves the plane's rule as it was.
+    record PlaneTarget(Plane plane) implements Target {
+        @Override
+        public void drawRun(long x, long y, long count, int state) {
+            if (state == 1) {
+                plane.setRun(x, y, count);
+            }
+        }
+
+        @Override
+        public boolean overlaps(long x, long y, long size) {
+            return true;
+        }
+
+        @Override
+        public void useRule(Rule rule) {
+            if (HashLife.supportsRule(rule)) {
+                plane.rule = rule;
+            }
+        }
+    }
+
+    // Switch to the rule a pattern file names. Anything after a colon (which Golly uses
+    // for the size of a bounded grid) is left off.
+    static void useRule(Target target, String text) throws IOException {
+        String name = text.trim();
+        if (name.contains(":")) {
+            name = name.substring(0, name.indexOf(':')).trim();
+        }
+        if (name.equalsIgnoreCase("Life")) {
+            target.useRule(Rule.CONWAY);
+            return;
+        }
+        try {
+            target.useRule(Rule.parse(name));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported rule in pattern file: " + e.getMessage());
+        }
+    }
+
+    // Hands out a Reader's characters one at a time from a fixed-size buffer, which is a
+    // lot quicker than asking the Reader for each one.
+    static class Chars {
+        final Reader in;
+        final char[] buffer = new char[1 << 16];
+        int position = 0;
+        int limit = 0;
+
+        Chars(Reader in) {
+            this.in = in;
+        }
+
+        int next() throws IOException {
+            if (position == limit) {
+                limit = Math.max(0, in.read(buffer));
+                position = 0;
+                if (limit == 0) {
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        void skipLine() throws IOException {
+            int c;
+            while ((c = next()) != -1 && c != '\n') {
+            }
+        }
+
+        // The rest of the current line, without the line break.
+        String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = next()) != -1 && c != '\n') {
+                line.append((char) c);
+            }
+            return line.toString();
+        }
+    }
+
+    static void readRle(Reader in, Target target, long offsetX, long offsetY) throws IOException {
+        long x = offsetX;
+        long y = offsetY;
+        long count = 0;
+        // For states past 'X' in multi-state files, which come as two letters: 'p' to
+        // 'y' for each 24 states, then 'A' to 'X' for the rest.
+        int stateBase = 0;
+        boolean lineStart = true;
+        Chars chars = new Chars(in);
+        int c;
+        while ((c = chars.next()) != -1) {
+            if (lineStart && (c == '#' || c == 'x')) {
+                // Comments and the "x = ..., y = ..., rule = ..." header. The size in the
+                // header isn't needed, since the cells say where they go, but the rule
+                // is. Some older files give it in a "#r" line instead.
+                String line = chars.readLine();
+                if (c == 'x' && line.contains("rule")) {
+                    String rule = line.substring(line.indexOf("rule") + 4).trim();
+                    useRule(target, rule.startsWith("=") ? rule.substring(1) : rule);
+                } else if (c == '#' && line.startsWith("r ")) {
+                    useRule(target, line.substring(2));
+                }
+                continue;
+            }
+            lineStart = c == '\n';
+
+            if (c >= '0' && c <= '9') {
+                count = count * 10 + (c - '0');
+            } else if (c == 'b' || c == '.') {
+                x += Math.max(1, count);
+                count = 0;
+            } else if (c == '$') {
+                y += Math.max(1, count);
+                x = offsetX;
+                count = 0;
+            } else if (c == '!') {
+                break;
+            } else if (c >= 'p' && c <= 'y') {
+                stateBase = (c - 'p' + 1) * 24;
+            } else if (Character.isLetter(c)) {
+                // 'o' is alive. Multi-state files have 'A' for alive and 'B' onwards for
+                // dying cells, which get the age they're at. Any other letter is taken to
+                // be alive, the way Golly does for two-state rules.
+                int state = c >= 'A' && c <= 'X' ? stateBase + c - 'A' + 1 : 1;
+                long run = Math.max(1, count);
+                target.drawRun(x, y, run, state);
+                x += run;
+                count = 0;
+                stateBase = 0;
+            }
+            // Anything else (like whitespace) is ignored.
+        }
+    }
+
+    static void readPlaintext(Reader in, Target target, long offsetX, long offsetY) throws IOException {
+        long x = offsetX;
+        long y = offsetY;
+        boolean lineStart = true;
+        Chars chars = new Chars(in);
+        int c;
+        while ((c = chars.next()) != -1) {
+            if (lineStart && c == '!') {
+                chars.skipLine();
+                continue;
+            }
+            lineStart = false;
+            if (c == '\n') {
+                x = offsetX;
+                y++;
+                lineStart = true;
+            } else if (c == '.') {
+                x++;
+            } else if (c != '\r' && !Character.isWhitespace(c)) {
+                // Usually 'O', but some files use '*'.
+                target.drawRun(x, y, 1, 1);
+                x++;
+            }
+        }
+    }
+
+    static void readMacrocell(Reader in, Target target, long offsetX, long offsetY) throws IOException {
+        // Node n (counting from 1, since 0 means empty) is either an 8x8 leaf, whose cells
+        // are the bits of leaves[n] (cell x, y at bit y * 8 + x), or has level levels[n] and
+        // children children[4n] to children[4n + 3] (nw, ne, sw, se).
+        int[] levels = new int[1024];
+        long[] leaves = new long[1024];
+        int[] children = new int[4 * 1024];
+        int nodes = 0;
+
+        BufferedReader lines = new BufferedReader(in);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith("#R")) {
+                useRule(target, line.substring(2));
+                continue;
+            }
+            if (line.isEmpty() || line.startsWith("[") || line.startsWith("#")) {
+                continue;
+            }
+            nodes++;
+            if (nodes >= levels.length) {
+                levels = Arrays.copyOf(levels, levels.length * 2);
+                leaves = Arrays.copyOf(leaves, leaves.length * 2);
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+
+            char first = line.charAt(0);
+            if (first == '.' || first == '*' || first == '$') {
+                long bits = 0;
+                int x = 0;
+                int y = 0;
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (c == '$') {
+                        x = 0;
+                        y++;
+                    } else {
+                        if (c == '*' && x < 8 && y < 8) {
+                            bits |= 1L << (y * 8 + x);
+                        }
+                        x++;
+                    }
+                }
+                levels[nodes] = 3;
+                leaves[nodes] = bits;
+            } else {
+                StringTokenizer tokens = new StringTokenizer(line);
+                try {
+                    levels[nodes] = Integer.parseInt(tokens.nextToken());
+                    for (int i = 0; i < 4; i++) {
+                        children[4 * nodes + i] = Integer.parseInt(tokens.nextToken());
+                    }
+                } catch (NumberFormatException | NoSuchElementException e) {
+                    throw new IOException("Bad Macrocell node: " + line);
+                }
+                if (levels[nodes] <= 3) {
+                    // Multi-state files build up from 2x2 nodes of states instead of 8x8
+                    // leaves of cells, which isn't something this reads.
+                    throw new IOException("Multi-state Macrocell files aren't supported");
+                }
+                for (int i = 0; i < 4; i++) {
+                    // Children always come before the nodes made out of them.
+                    if (children[4 * nodes + i] < 0 || children[4 * nodes + i] >= nodes) {
+                        throw new IOException("Bad Macrocell node: " + line);
+                    }
+                }
+            }
+        }
+        if (nodes == 0) {
+            return;
+        }
+
+        // The last node is the whole pattern. Work out where its living cells start, so
+        // that corner can be put at the offset, like it is for the other formats.
+        long[] corner = { Long.MAX_VALUE, Long.MAX_VALUE };
+        findCorner(nodes, 0, 0, levels, leaves, children, corner, new HashMap<>());
+        paintMacrocell(target, nodes, offsetX - corner[0], offsetY - corner[1], levels, leaves, children);
+    }
+
+    // Find the smallest x and smallest y of any living cell in node n, which is at (x, y).
+    // Each node's own answer is remembered, so repeated nodes are only looked at once.
+    static void findCorner(int n, long x, long y, int[] levels, long[] leaves, int[] children, long[] corner,
+            Map<Integer, long[]> known) {
+        long[] own = known.get(n);
+        if (own == null) {
+            own = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+            if (levels[n] == 3) {
+                for (int bit = 0; bit < 64; bit++) {
+                    if ((leaves[n] & (1L << bit)) != 0) {
+                        own[0] = Math.min(own[0], bit % 8);
+                        own[1] = Math.min(own[1], bit / 8);
+                    }
+                }
+            } else {
+                long half = 1L << (levels[n] - 1);
+                for (int i = 0; i < 4; i++) {
+                    int child = children[4 * n + i];
+                    if (child != 0) {
+                        findCorner(child, (i % 2) * half, (i / 2) * half, levels, leaves, children, own, known);
+                    }
+                }
+            }
+            known.put(n, own);
+        }
+        if (own[0] != Long.MAX_VALUE) {
+            corner[0] = Math.min(corner[0], x + own[0]);
+            corner[1] = Math.min(corner[1], y + own[1]);
+        }
+    }
+
+    static void paintMacrocell(Target target, int n, long x, long y, int[] levels, long[] leaves, int[] children) {
+        long size = 1L << levels[n];
+        if (!target.overlaps(x, y, size)) {
+            return;
+        }
+        if (levels[n] == 3) {
+            for (int bit = 0; bit < 64; bit++) {
+                if ((leaves[n] & (1L << bit)) != 0) {
+                    target.drawRun(x + bit % 8, y + bit / 8, 1, 1);
+                }
+            }
+            return;
+        }
+        long half = size / 2;
+        for (int i = 0; i < 4; i++) {
+            int child = children[4 * n + i];
+            if (child != 0) {
+                paintMacrocell(target, child, x + (i % 2) * half, y + (i / 2) * half, levels, leaves, children);
+            }
+        }
+    }
+
+    public static void writeRle(Writer out, Board board) throws IOException {
+        out.write("x = " + board.width + ", y = " + board.height + ", rule = " + board.rule.name + "\n");
+        RleWriter rle = new RleWriter(out);
+        for (int y = 0; y < board.height; y++) {
+            // Go along the row a run at a time. Dead cells at the end of a row are left out.
+            int rowStart = board.wordIndex(0, y);
+            int x = 0;
+            while (x < board.width) {
+                boolean alive = board.get(x, y);
+                int end = runEnd(board, rowStart, x, alive);
+                if (alive || end < board.width) {
+                    rle.add(end - x, alive ? 'o' : 'b');
+                }
+                x = end;
+            }
+            rle.add(1, '$');
+        }
+        rle.add(1, '!');
+        rle.finish();
+    }
+
+    // Find where a run of alive (or dead) cells starting at x ends, looking at a whole
+    // word at a time.
+    static int runEnd(Board board, int rowStart, int x, boolean alive) {
+        while (x < board.width) {
+            long word = board.cells[rowStart + (x >> 6)] >>> x;
+            long different = alive ? ~word : word;
+            int bitsLeftInWord = 64 - (x & 63);
+            int same = Long.numberOfTrailingZeros(different);
+            if (same < bitsLeftInWord) {
+                return Math.min(x + same, board.width);
+            }
+            x += bitsLeftInWord;
+        }
+        return board.width;
+    }
+
+    // Puts together the runs of an RLE file, merging runs of the same thing and wrapping
+    // lines at the right length.
+    static class RleWriter {
+        final Writer out;
+        int lineLength = 0;
+        long pendingCount = 0;
+        char pendingTag = 0;
+
+        RleWriter(Writer out) {
+            this.out = out;
+        }
+
+        void add(long count, char tag) throws IOException {
+            if (tag == pendingTag) {
+                pendingCount += count;
+                return;
+            }
+            // Row ends straight before the end of the pattern aren't needed.
+            if (tag == '!' && pendingTag == '$') {
+                pendingCount = 0;
+                pendingTag = 0;
+            }
+            flush();
+            pendingCount = count;
+            pendingTag = tag;
+        }
+
+        void flush() throws IOException {
+            if (pendingTag == 0) {
+                return;
+            }
+            String item = (pendingCount > 1 ? String.valueOf(pendingCount) : "") + pendingTag;
+            if (lineLength + item.length() > RLE_LINE_LENGTH) {
+                out.write('\n');
+                lineLength = 0;
+            }
+            out.write(item);
+            lineLength += item.length();
+        }
+
+        void finish() throws IOException {
+            flush();
+            out.write('\n');
+        }
+    }
+
+    public static void writePlaintext(Writer out, Board board) throws IOException {
+        out.write("!Name: Saved from Game of Life Simulator\n");
+        for (int y = 0; y < board.height; y++) {
+            // Leave off the dead cells at the end of each row.
+            int last = -1;
+            for (int x = 0; x < board.width; x++) {
+                if (board.get(x, y)) {
+                    last = x;
+                }
+            }
+            for (int x = 0; x <= last; x++) {
+                out.write(board.get(x, y) ? 'O' : '.');
+            }
+            out.write('\n');
+        }
+    }
+
+    public static void writeMacrocell(Writer out, Board board) throws IOException {
+        // Let HashLife build the quadtree, since it already makes sure each distinct
+        // square only appears once.
+        HashLife hashLife = new HashLife(64L * 1024 * 1024);
+        hashLife.load(board);
+        HashLife.Node root = hashLife.root;
+        while (root.level < 3) {
+            HashLife.Node empty = hashLife.empty(root.level);
+            root = hashLife.node(root, empty, empty, empty);
+        }
+
+        out.write("[M2] (Game of Life Simulator)\n");
+        out.write("#R " + board.rule.name + "\n");
+        writeMacrocellNode(out, hashLife, root, new IdentityHashMap<>());
+    }
+
+    // Write out a node after its children, returning its number (or 0 if it's empty).
+    static int writeMacrocellNode(Writer out, HashLife hashLife, HashLife.Node n, Map<HashLife.Node, Integer> numbers)
+            throws IOException {
+        if (n.population == 0) {
+            return 0;
+        }
+        Integer known = numbers.get(n);
+        if (known != null) {
+            return known;
+        }
+
+        if (n.level == 3) {
+            StringBuilder line = new StringBuilder();
+            for (int y = 0; y < 8; y++) {
+                int last = -1;
+                for (int x = 0; x < 8; x++) {
+                    if (HashLife.cellAt(n, x, y)) {
+                        last = x;
+                    }
+                }
+                for (int x = 0; x <= last; x++) {
+                    line.append(HashLife.cellAt(n, x, y) ? '*' : '.');
+                }
+                line.append('$');
+            }
+            out.write(line.append('\n').toString());
+        } else {
+            int nw = writeMacrocellNode(out, hashLife, n.nw, numbers);
+            int ne = writeMacrocellNode(out, hashLife, n.ne, numbers);
+            int sw = writeMacrocellNode(out, hashLife, n.sw, numbers);
+            int se = writeMacrocellNode(out, hashLife, n.se, numbers);
+            out.write(n.level + " " + nw + " " + ne + " " + sw + " " + se + "\n");
+        }
+        int number = numbers.size() + 1;
+        numbers.put(n, number);
+        return number;
+    }
+}
@@ -0,0 +1,359 @@
+import java.util.*;
+
+/*
+An unbounded board: an infinite plane of cells, where patterns can fly off or grow as far as
+they like without ever reaching an edge.
+
+The plane is split into 64x64 chunks, kept in a HashMap keyed by their chunk coordinates.
+Only chunks with living cells in them exist at all, so memory goes with how much of the plane
+is alive rather than how far apart the living parts are: a glider that's flown a million cells
+away from everything else still only costs a chunk or two. Chunks are made as soon as a cell is
+born in them, and thrown away as soon as the last one dies.
+
+Each chunk is laid out like one tile of a Board (every row is a single long, with bit x being
+column x), so stepping uses the same 64-cells-at-a-time rule functions. Like the sparse step
+mode, only the chunks that changed last step and the ones around them get stepped, so still
+lifes cost nothing once they've settled.
+
+Only two-state rules without B0 work here (the same ones HashLife can do), since with B0 the
+whole infinite plane would come alive at once.
+*/
+
+public class Plane {
+    static final int CHUNK_SIZE = 64;
+
+    // A rectangle of the plane, in cells, lined up with the chunks: left and top are
+    // multiples of CHUNK_SIZE, and so are width and height.
+    record Window(long left, long top, int width, int height) {
+    }
+
+    static class Chunk {
+        long[] cells = new long[CHUNK_SIZE];
+        // The spare buffer the next generation is worked out into.
+        long[] next = new long[CHUNK_SIZE];
+        int population = 0;
+    }
+
+    static final long[] EMPTY_ROWS = new long[CHUNK_SIZE];
+
+    final HashMap<Long, Chunk> chunks = new HashMap<>();
+
+    Rule rule = Rule.CONWAY;
+    long generation = 0;
+    // Goes up every time the plane is edited, the same as Board.modifications.
+    long modifications = 0;
+
+    long population = 0;
+    // How many cells were born and died in the last step.
+    long births = 0;
+    long deaths = 0;
+
+    // The chunks that changed in the last step or have been edited since, which (along
+    // with the ones around them) are the only ones that can change in the next step.
+    HashSet<Long> changed = new HashSet<>();
+
+    // Scratch space for step(), kept from one step to the next so that stepping doesn't
+    // have to make new ones (and grow them all over again) every generation. nextChanged
+    // becomes changed at the end of a step, and the old changed is reused as nextChanged.
+    final HashSet<Long> candidates = new HashSet<>();
+    HashSet<Long> nextChanged = new HashSet<>();
+    final HashMap<Long, Chunk> born = new HashMap<>();
+    long[] scratch = new long[CHUNK_SIZE];
+
+    // The chunks that have changed since the last snapshot was made.
+    final HashSet<Long> unpublished = new HashSet<>();
+
+    // Chunk coordinates are packed into one long to use as a key, x in the top half.
+    static long key(long cx, long cy) {
+        return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    static long keyX(long key) {
+        return key >> 32;
+    }
+
+    static long keyY(long key) {
+        return (int) key;
+    }
+
+    void markChanged(long key) {
+        changed.add(key);
+        unpublished.add(key);
+    }
+
+    public boolean get(long x, long y) {
+        Chunk chunk = chunks.get(key(x >> 6, y >> 6));
+        return chunk != null && ((chunk.cells[(int) (y & 63)] >>> x) & 1L) != 0;
+    }
+
+    public void set(long x, long y, boolean alive) {
+        orWord(x, y, 1L, alive);
+    }
+
+    public void toggle(long x, long y) {
+        set(x, y, !get(x, y));
+    }
+
+    // Set (or clear, if alive is false) the cells in bits, as if it were a row of 64 cells
+    // starting at (x, y). x doesn't have to be lined up with a chunk, in which case the
+    // row is split between two of them.
+    void orWord(long x, long y, long bits, boolean alive) {
+        int shift = (int) (x & 63);
+        updateRow(x >> 6, y, bits << shift, alive);
+        if (shift != 0) {
+            updateRow((x >> 6) + 1, y, bits >>> (64 - shift), alive);
+        }
+    }
+
+    void updateRow(long cx, long y, long bits, boolean alive) {
+        if (bits == 0) {
+            return;
+        }
+        long key = key(cx, y >> 6);
+        Chunk chunk = chunks.get(key);
+        if (chunk == null) {
+            if (!alive) {
+                return;
+            }
+            chunk = new Chunk();
+            chunks.put(key, chunk);
+        }
+        int row = (int) (y & 63);
+        long before = chunk.cells[row];
+        chunk.cells[row] = alive ? before | bits : before & ~bits;
+        int change = Long.bitCount(chunk.cells[row]) - Long.bitCount(before);
+        chunk.population += change;
+        population += change;
+        if (chunk.population == 0) {
+            chunks.remove(key);
+        }
+        markChanged(key);
+        modifications++;
+    }
+
+    public void clear() {
+        for (long key : chunks.keySet()) {
+            markChanged(key);
+        }
+        chunks.clear();
+        population = 0;
+        modifications++;
+    }
+
+    // Bring each cell in the rectangle from (0, 0) to (width, height) to life with the given
+    // chance, like Board.randomize.
+    public void randomize(Random random, double density, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                set(x, y, random.nextDouble() < density);
+            }
+        }
+    }
+
+    // Make count cells alive, starting at (x, y) and going right, up to a word at a time.
+    public void setRun(long x, long y, long count) {
+        while (count > 0) {
+            int bits = (int) Math.min(64, count);
+            orWord(x, y, bits == 64 ? -1L : (1L << bits) - 1, true);
+            x += bits;
+            count -= bits;
+        }
+    }
+
+    // Draw the living cells of a board onto the plane, with its top left corner at (x, y).
+    public void paste(Board board, long x, long y) {
+        for (int row = 0; row < board.height; row++) {
+            int rowStart = board.wordIndex(0, row);
+            for (int w = 0; w < board.wordsPerRow; w++) {
+                long bits = board.cells[rowStart + w] & board.wordMasks[w + 1];
+                if (bits != 0) {
+                    orWord(x + (w << 6), y + row, bits, true);
+                }
+            }
+        }
+    }
+
+    // The smallest window that holds every living cell, or the chunk at (0, 0) if there
+    // aren't any.
+    public Window bounds() {
+        return bounds(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    // The same, but cut down to at most maxWidth by maxHeight cells (whole chunks) from its
+    // top left corner, so it's always small enough to show however spread out the plane is.
+    public Window bounds(long maxWidth, long maxHeight) {
+        if (chunks.isEmpty()) {
+            return new Window(0, 0, CHUNK_SIZE, CHUNK_SIZE);
+        }
+        long left = Long.MAX_VALUE;
+        long top = Long.MAX_VALUE;
+        long right = Long.MIN_VALUE;
+        long bottom = Long.MIN_VALUE;
+        for (long key : chunks.keySet()) {
+            left = Math.min(left, keyX(key));
+            right = Math.max(right, keyX(key));
+            top = Math.min(top, keyY(key));
+            bottom = Math.max(bottom, keyY(key));
+        }
+        long width = Math.min((right - left + 1) * CHUNK_SIZE, maxWidth / CHUNK_SIZE * CHUNK_SIZE);
+        long height = Math.min((bottom - top + 1) * CHUNK_SIZE, maxHeight / CHUNK_SIZE * CHUNK_SIZE);
+        // Divided rather than multiplied, since the product can be too big for a long.
+        if (width > Integer.MAX_VALUE / height) {
+            throw new IllegalStateException("The living cells are too far apart to fit on one board");
+        }
+        return new Window(left * CHUNK_SIZE, top * CHUNK_SIZE, (int) width, (int) height);
+    }
+
+    // A board just big enough to hold every living cell, covering the same part of the
+    // plane as bounds(). Its top left corner is the top left corner of the top left chunk.
+    public Board toBoard() {
+        Window bounds = bounds();
+        Board board = new Board(bounds.width(), bounds.height(), Topology.DEAD);
+        board.rule = rule;
+        board.generation = generation;
+        for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+            int x = (int) (keyX(entry.getKey()) * CHUNK_SIZE - bounds.left());
+            int y = (int) (keyY(entry.getKey()) * CHUNK_SIZE - bounds.top());
+            for (int row = 0; row < CHUNK_SIZE; row++) {
+                board.cells[board.wordIndex(x, y + row)] = entry.getValue().cells[row];
+            }
+        }
+        board.markAllChanged();
+        return board;
+    }
+
+    // The rows of a chunk, or all zeros if it doesn't exist.
+    long[] rows(long cx, long cy) {
+        Chunk chunk = chunks.get(key(cx, cy));
+        return chunk == null ? EMPTY_ROWS : chunk.cells;
+    }
+
+    // Advance the plane by one generation.
+    public void step() {
+        // Every chunk that could change: the ones that changed last time and the ones
+        // around them.
+        candidates.clear();
+        for (long key : changed) {
+            long cx = keyX(key);
+            long cy = keyY(key);
+            for (long dy = -1; dy <= 1; dy++) {
+                for (long dx = -1; dx <= 1; dx++) {
+                    candidates.add(key(cx + dx, cy + dy));
+                }
+            }
+        }
+
+        // Work out the next generation of each of them without touching the current one,
+        // since the chunks around them still need it. Chunks that don't exist yet go in
+        // born, if anything comes to life in them.
+        HashSet<Long> nowChanged = nextChanged;
+        nowChanged.clear();
+        births = 0;
+        deaths = 0;
+        for (long key : candidates) {
+            Chunk chunk = chunks.get(key);
+            long[] before = chunk == null ? EMPTY_ROWS : chunk.cells;
+            long[] after = chunk == null ? scratch : chunk.next;
+            stepChunk(keyX(key), keyY(key), after);
+            boolean different = false;
+            for (int row = 0; row < CHUNK_SIZE; row++) {
+                if (after[row] != before[row]) {
+                    different = true;
+                    births += Long.bitCount(after[row] & ~before[row]);
+                    deaths += Long.bitCount(before[row] & ~after[row]);
+                }
+            }
+            if (!different) {
+                continue;
+            }
+            nowChanged.add(key);
+            if (chunk == null) {
+                Chunk newChunk = new Chunk();
+                newChunk.next = scratch;
+                scratch = new long[CHUNK_SIZE];
+                born.put(key, newChunk);
+            }
+        }
+
+        // Now swap the buffers of everything that changed, and throw away the chunks that
+        // have emptied out.
+        chunks.putAll(born);
+        born.clear();
+        for (long key : nowChanged) {
+            Chunk chunk = chunks.get(key);
+            long[] current = chunk.cells;
+            chunk.cells = chunk.next;
+            chunk.next = current;
+            int count = 0;
+            for (long row : chunk.cells) {
+                count += Long.bitCount(row);
+            }
+            chunk.population = count;
+            if (count == 0) {
+                chunks.remove(key);
+            }
+        }
+        population += births - deaths;
+        nextChanged = changed;
+        changed = nowChanged;
+        unpublished.addAll(nowChanged);
+        generation++;
+    }
+
+    // Work out the next generation of one chunk into out, from it and the 8 around it.
+    void stepChunk(long cx, long cy, long[] out) {
+        long[] north = rows(cx, cy - 1);
+        long[] northWest = rows(cx - 1, cy - 1);
+        long[] northEast = rows(cx + 1, cy - 1);
+        long[] centre = rows(cx, cy);
+        long[] west = rows(cx - 1, cy);
+        long[] east = rows(cx + 1, cy);
+        long[] south = rows(cx, cy + 1);
+        long[] southWest = rows(cx - 1, cy + 1);
+        long[] southEast = rows(cx + 1, cy + 1);
+        boolean conway = rule.isConway();
+        long[] lookup = rule.wordLookup;
+
+        for (int row = 0; row < CHUNK_SIZE; row++) {
+            // The row above, this row and the row below, each with the words either side
+            // of it for the cells on the edges.
+            long a = row == 0 ? north[63] : centre[row - 1];
+            long aLeft = row == 0 ? northWest[63] : west[row - 1];
+            long aRight = row == 0 ? northEast[63] : east[row - 1];
+            long b = centre[row];
+            long bLeft = west[row];
+            long bRight = east[row];
+            long c = row == 63 ? south[0] : centre[row + 1];
+            long cLeft = row == 63 ? southWest[0] : west[row + 1];
+            long cRight = row == 63 ? southEast[0] : east[row + 1];
+
+            long aWest = (a << 1) | (aLeft >>> 63);
+            long aEast = (a >>> 1) | (aRight << 63);
+            long bWest = (b << 1) | (bLeft >>> 63);
+            long bEast = (b >>> 1) | (bRight << 63);
+            long cWest = (c << 1) | (cLeft >>> 63);
+            long cEast = (c >>> 1) | (cRight << 63);
+            out[row] = conway ? Board.lifeRule(aWest, a, aEast, bWest, b, bEast, cWest, c, cEast)
+                    : Board.lifeLikeRule(aWest, a, aEast, bWest, b, bEast, cWest, c, cEast, lookup);
+        }
+    }
+
+    // Which tiles of a window have chunks in them that changed since the last snapshot.
+    // Only the JavaFX side cares, so the list of changes is emptied afterwards.
+    boolean[] takeChangedTiles(Window window) {
+        int tilesAcross = window.width() / CHUNK_SIZE;
+        int tilesDown = window.height() / CHUNK_SIZE;
+        long left = window.left() / CHUNK_SIZE;
+        long top = window.top() / CHUNK_SIZE;
+        boolean[] changedTiles = new boolean[tilesAcross * tilesDown];
+        for (long key : unpublished) {
+            long tx = keyX(key) - left;
+            long ty = keyY(key) - top;
+            if (tx >= 0 && ty >= 0 && tx < tilesAcross && ty < tilesDown) {
+                changedTiles[(int) (ty * tilesAcross + tx)] = true;
+            }
+        }
+        unpublished.clear();
+        return changedTiles;
+    }
+}
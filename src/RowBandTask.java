@@ -0,0 +1,70 @@
+import java.util.concurrent.*;
+
+/*
+Steps a board in parallel by cutting it into horizontal bands of rows.
+
+Each band needs the row just above and just below it (its halo) from the current generation.
+Since every band only reads the current buffer and only writes its own rows of the next one,
+that exchange happens for free: a band simply reads its neighbours' edge rows straight out of
+the shared current buffer, and nothing has to be copied or locked.
+
+How far to cut depends on how much work there is, which is rows times words per row, not
+just rows: a short but very wide board has as much to do as a tall narrow one. Bands are
+always whole rows of 64x64 tiles, since each tile's births and deaths are added up by
+whichever band steps it, and two threads adding to the same count would lose some. A board
+with only one row of tiles left to split gets cut into columns of tiles instead.
+*/
+
+// ForkJoinTask is Serializable, but these are never serialized, so there's no need for a
+// serialVersionUID or a serializable Board.
+@SuppressWarnings("serial")
+public class RowBandTask extends RecursiveAction {
+    // Pieces with fewer words than this (about 10 microseconds of stepping) aren't worth
+    // handing to another thread.
+    static final int MIN_WORDS = 2048;
+
+    final Board board;
+    final int from;
+    final int to;
+    // The words of each row to step, counting the leading guard word as word 0, like
+    // Board.stepBlock does.
+    final int fromWord;
+    final int toWord;
+
+    RowBandTask(Board board, int from, int to, int fromWord, int toWord) {
+        this.board = board;
+        this.from = from;
+        this.to = to;
+        this.fromWord = fromWord;
+        this.toWord = toWord;
+    }
+
+    // Step every row of the board, using the shared ForkJoinPool.
+    static void stepAll(Board board) {
+        if ((long) board.height * board.wordsPerRow < 2 * MIN_WORDS) {
+            // Too small to be worth splitting up.
+            board.stepRows(0, board.height);
+        } else {
+            ForkJoinPool.commonPool().invoke(new RowBandTask(board, 0, board.height, 1, board.wordsPerRow + 1));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        int tileRows = (to - from + Board.TILE_SIZE - 1) / Board.TILE_SIZE;
+        int words = toWord - fromWord;
+        if ((long) (to - from) * words < 2 * MIN_WORDS || (tileRows < 2 && words < 2)) {
+            board.stepBlock(from, to, fromWord, toWord);
+        } else if (tileRows >= 2) {
+            // Split in half (rounded to a whole number of tile rows) and do both halves,
+            // letting idle threads steal one of them.
+            int middle = from + tileRows / 2 * Board.TILE_SIZE;
+            invokeAll(new RowBandTask(board, from, middle, fromWord, toWord),
+                    new RowBandTask(board, middle, to, fromWord, toWord));
+        } else {
+            int middle = fromWord + words / 2;
+            invokeAll(new RowBandTask(board, from, to, fromWord, middle),
+                    new RowBandTask(board, from, to, middle, toWord));
+        }
+    }
+}
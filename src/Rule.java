@@ -0,0 +1,265 @@
+import java.util.*;
+
+/*
+A rule for how cells are born, survive and die, parsed from one of the usual rulestrings:
+    B/S notation for Life-like rules, like "B3/S23" (Conway's Life) or "B36/S23" (HighLife).
+    The older S/B order without letters ("23/3") works too.
+    Generations rules, like "B2/S/C3" (Brian's Brain), which add dying states: a cell that
+    doesn't survive goes through states 2, 3 and so on before it's finally dead, and while
+    it's dying it doesn't count as a neighbour and can't be born into.
+    Larger than Life rules, like "R5,C0,M1,S34..58,B34..45,NM" (Bosco's rule), which look
+    further than one cell away. R is the range, C the number of states (0 or 2 for the usual
+    alive and dead), M is 1 if a cell counts itself, S and B are ranges of neighbour counts,
+    and N is M for a square neighbourhood or N for a diamond-shaped one.
+
+Every rule is worked out up front into lookup tables, so stepping never has to look at the
+rule itself, just index into a table.
+*/
+
+public class Rule {
+    // Some well known rules, for the properties modal to offer.
+    static final Map<String, String> PRESETS = new LinkedHashMap<>();
+    static {
+        PRESETS.put("Conway's Life", "B3/S23");
+        PRESETS.put("HighLife", "B36/S23");
+        PRESETS.put("Day & Night", "B3678/S34678");
+        PRESETS.put("Seeds", "B2/S");
+        PRESETS.put("Brian's Brain", "B2/S/C3");
+        PRESETS.put("Star Wars", "B2/S345/C4");
+        PRESETS.put("Bosco's Rule", "R5,C0,M1,S34..58,B34..45,NM");
+    }
+
+    static final Rule CONWAY = parse("B3/S23");
+
+    // The rule written out in a standard form, which is what gets saved.
+    final String name;
+
+    // How far away neighbours can be, and the shape of the neighbourhood.
+    final int range;
+    final boolean vonNeumann;
+    // Whether a cell counts itself as one of its own neighbours.
+    final boolean includesSelf;
+    // 2 for plain alive and dead, more if cells take a few generations to die.
+    final int states;
+
+    // Indexed by neighbour count.
+    final boolean[] birth;
+    final boolean[] survive;
+    final int maxCount;
+
+    // For Life-like and Generations rules: the same as birth and survive, but as longs
+    // that are all ones or all zeros, for picking out cells 64 at a time. Entries 0 to 8
+    // are for birth and 9 to 17 for survival.
+    final long[] wordLookup = new long[18];
+
+    // For Larger than Life rules: the next state of a cell, at index state * (maxCount + 1) +
+    // neighbour count.
+    final byte[] transitions;
+
+    Rule(String name, int range, boolean vonNeumann, boolean includesSelf, int states, boolean[] birth,
+            boolean[] survive) {
+        this.name = name;
+        this.range = range;
+        this.vonNeumann = vonNeumann;
+        this.includesSelf = includesSelf;
+        this.states = states;
+        this.birth = birth;
+        this.survive = survive;
+        maxCount = birth.length - 1;
+
+        for (int count = 0; count <= 8 && count <= maxCount; count++) {
+            wordLookup[count] = birth[count] ? -1L : 0;
+            wordLookup[9 + count] = survive[count] ? -1L : 0;
+        }
+
+        transitions = new byte[states * (maxCount + 1)];
+        for (int count = 0; count <= maxCount; count++) {
+            transitions[count] = (byte) (birth[count] ? 1 : 0);
+            transitions[maxCount + 1 + count] = (byte) (survive[count] ? 1 : states > 2 ? 2 : 0);
+            for (int state = 2; state < states; state++) {
+                transitions[state * (maxCount + 1) + count] = (byte) (state + 1 < states ? state + 1 : 0);
+            }
+        }
+    }
+
+    // Rules that can be stepped 64 cells at a time: two states, and each cell only looking
+    // at the 8 around it.
+    boolean isLifeLike() {
+        return states == 2 && range == 1 && !vonNeumann && !includesSelf;
+    }
+
+    // Generations rules: like Life-like ones, but with dying states. These can still be
+    // stepped 64 cells at a time, with a little extra work for the dying cells.
+    boolean isGenerations() {
+        return states > 2 && range == 1 && !vonNeumann && !includesSelf;
+    }
+
+    boolean isConway() {
+        return name.equals("B3/S23");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Rule rule && rule.name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    // Read a rulestring, throwing an IllegalArgumentException if it doesn't make sense.
+    // Names of the presets work too.
+    public static Rule parse(String text) {
+        String rule = PRESETS.getOrDefault(text.trim(), text.trim());
+        if (rule.isEmpty()) {
+            throw new IllegalArgumentException("The rule is empty");
+        }
+        if (rule.toUpperCase().startsWith("R") && rule.contains(",")) {
+            return parseLargerThanLife(rule);
+        }
+        return parseBirthSurvival(rule);
+    }
+
+    static Rule parseBirthSurvival(String rule) {
+        String[] parts = rule.split("/", -1);
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Expected something like B3/S23, not " + rule);
+        }
+
+        String birthDigits = null;
+        String survivalDigits = null;
+        String stateCount = null;
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            String upper = part.toUpperCase();
+            if (upper.startsWith("B")) {
+                birthDigits = part.substring(1);
+            } else if (upper.startsWith("S")) {
+                survivalDigits = part.substring(1);
+            } else if (upper.startsWith("C") || upper.startsWith("G")) {
+                stateCount = part.substring(1);
+            } else if (i == 0) {
+                // Without letters, the old order is survival first.
+                survivalDigits = part;
+            } else if (i == 1) {
+                birthDigits = part;
+            } else {
+                stateCount = part;
+            }
+        }
+        if (birthDigits == null || survivalDigits == null) {
+            throw new IllegalArgumentException("Expected something like B3/S23, not " + rule);
+        }
+
+        boolean[] birth = neighbourCounts(birthDigits, rule);
+        boolean[] survive = neighbourCounts(survivalDigits, rule);
+        int states = 2;
+        if (stateCount != null && !stateCount.isEmpty()) {
+            states = parseNumber(stateCount, rule);
+            if (states < 2 || states > 256) {
+                throw new IllegalArgumentException("Rules can have 2 to 256 states, not " + states);
+            }
+        }
+
+        StringBuilder name = new StringBuilder("B");
+        for (int count = 0; count <= 8; count++) {
+            name.append(birth[count] ? String.valueOf(count) : "");
+        }
+        name.append("/S");
+        for (int count = 0; count <= 8; count++) {
+            name.append(survive[count] ? String.valueOf(count) : "");
+        }
+        if (states > 2) {
+            name.append("/C").append(states);
+        }
+        return new Rule(name.toString(), 1, false, false, states, birth, survive);
+    }
+
+    // Turn a string of digits like "236" into a table of which counts (0 to 8) it has.
+    static boolean[] neighbourCounts(String digits, String rule) {
+        boolean[] counts = new boolean[9];
+        for (char c : digits.trim().toCharArray()) {
+            if (c < '0' || c > '8') {
+                throw new IllegalArgumentException("Neighbour counts go from 0 to 8, so " + rule + " doesn't work");
+            }
+            counts[c - '0'] = true;
+        }
+        return counts;
+    }
+
+    static int parseNumber(String number, String rule) {
+        try {
+            return Integer.parseInt(number.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Couldn't read " + number + " in " + rule);
+        }
+    }
+
+    static Rule parseLargerThanLife(String rule) {
+        int range = 1;
+        int states = 2;
+        boolean includesSelf = false;
+        boolean vonNeumann = false;
+        int[] birthRange = null;
+        int[] survivalRange = null;
+        for (String part : rule.split(",")) {
+            part = part.trim().toUpperCase();
+            if (part.isEmpty()) {
+                continue;
+            }
+            String value = part.substring(1);
+            switch (part.charAt(0)) {
+                case 'R' -> range = parseNumber(value, rule);
+                case 'C' -> states = Math.max(2, parseNumber(value, rule));
+                case 'M' -> includesSelf = parseNumber(value, rule) == 1;
+                case 'S' -> survivalRange = parseRange(value, rule);
+                case 'B' -> birthRange = parseRange(value, rule);
+                case 'N' -> {
+                    if (!value.equals("M") && !value.equals("N")) {
+                        throw new IllegalArgumentException("The neighbourhood has to be NM or NN, not N" + value);
+                    }
+                    vonNeumann = value.equals("N");
+                }
+                default -> throw new IllegalArgumentException("Didn't understand " + part + " in " + rule);
+            }
+        }
+        if (birthRange == null || survivalRange == null) {
+            throw new IllegalArgumentException("Larger than Life rules need both S and B, like R5,C0,M1,S34..58,B34..45,NM");
+        }
+        if (range < 1 || range > 50 || states > 256) {
+            throw new IllegalArgumentException("Ranges go from 1 to 50 and states up to 256");
+        }
+
+        // A square neighbourhood of range r has (2r + 1)^2 cells, and a diamond has
+        // 2r(r + 1) + 1, including the middle.
+        int maxCount = (vonNeumann ? 2 * range * (range + 1) + 1 : (2 * range + 1) * (2 * range + 1))
+                - (includesSelf ? 0 : 1);
+        boolean[] birth = new boolean[maxCount + 1];
+        boolean[] survive = new boolean[maxCount + 1];
+        for (int count = 0; count <= maxCount; count++) {
+            birth[count] = count >= birthRange[0] && count <= birthRange[1];
+            survive[count] = count >= survivalRange[0] && count <= survivalRange[1];
+        }
+
+        String name = "R" + range + ",C" + (states == 2 ? 0 : states) + ",M" + (includesSelf ? 1 : 0) + ",S"
+                + survivalRange[0] + ".." + survivalRange[1] + ",B" + birthRange[0] + ".." + birthRange[1] + ",N"
+                + (vonNeumann ? "N" : "M");
+        return new Rule(name, range, vonNeumann, includesSelf, states, birth, survive);
+    }
+
+    // A range of counts, like "34..58" (or just "3").
+    static int[] parseRange(String value, String rule) {
+        int dots = value.indexOf("..");
+        if (dots < 0) {
+            int count = parseNumber(value, rule);
+            return new int[] { count, count };
+        }
+        return new int[] { parseNumber(value.substring(0, dots), rule), parseNumber(value.substring(dots + 2), rule) };
+    }
+}
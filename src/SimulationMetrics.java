@@ -0,0 +1,259 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.*;
+
+/*
+Keeps track of where the time goes, split into the three phases a generation goes through on
+its way to the screen:
+    simulate: stepping the board (and checking it for cycles), on the simulation thread.
+    publish: making the snapshot the display draws from, also on the simulation thread.
+    render: copying the snapshot into the image and drawing it, on the JavaFX thread. JavaFX
+    actually puts the pixels on screen later on a thread of its own, so this is the part
+    that holds up the UI rather than the whole cost of a frame.
+Each phase has a LatencyHistogram of how long it takes. Along with those, the number of
+generations per second, living cells, cells that changed in the last step, and bytes allocated
+per step are kept up to date.
+
+All of this can be seen three ways: the stats overlay on the board (see overlayText()), JMX
+(see SimulationMetricsMXBean), and JFR events, which cost nothing unless a recording is
+running. To record them, start the program with something like
+    -XX:StartFlightRecording:filename=cgol.jfr
+and open the file in JDK Mission Control, where the events are under "Game of Life".
+*/
+
+public class SimulationMetrics implements SimulationMetricsMXBean {
+    static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+    static final boolean countAllocations = threads.isThreadAllocatedMemorySupported()
+            && threads.isThreadAllocatedMemoryEnabled();
+
+    final LatencyHistogram simulate = new LatencyHistogram();
+    final LatencyHistogram publish = new LatencyHistogram();
+    final LatencyHistogram render = new LatencyHistogram();
+
+    // Only ever written by the simulation thread.
+    volatile long steps = 0;
+    volatile long generation = 0;
+    volatile long liveCells = 0;
+    volatile long changedCells = 0;
+    volatile long allocatedBytesPerStep = 0;
+
+    // Generations per second, worked out over roughly a second at a time.
+    volatile double generationsPerSecond = 0;
+    volatile long lastStepNanos = System.nanoTime();
+    long rateStartNanos = System.nanoTime();
+    long rateStartSteps = 0;
+
+    // What the overlay is showing, and the counts it's showing them since. Only touched
+    // by the JavaFX thread.
+    String overlay = "";
+    long overlayStartNanos = 0;
+    long[][] overlayStartCounts = null;
+
+    @Name("cgol.Simulate")
+    @Label("Simulate")
+    @Category("Game of Life")
+    @Description("Stepping the board one generation")
+    static class SimulateEvent extends Event {
+        @Label("Generation")
+        long generation;
+        @Label("Changed Cells")
+        long changedCells;
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+
+        // JFR leaves transient fields out of the recording.
+        transient long startNanos;
+        transient long startAllocated;
+    }
+
+    @Name("cgol.Publish")
+    @Label("Publish")
+    @Category("Game of Life")
+    @Description("Making a snapshot of the board for the display")
+    static class PublishEvent extends Event {
+        @Label("Generation")
+        long generation;
+        @Label("Live Cells")
+        long liveCells;
+
+        transient long startNanos;
+    }
+
+    @Name("cgol.Render")
+    @Label("Render")
+    @Category("Game of Life")
+    @Description("Drawing a frame")
+    static class RenderEvent extends Event {
+        @Label("Generation")
+        long generation;
+
+        transient long startNanos;
+    }
+
+    // Make the metrics visible to JMX clients.
+    void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("cgol:type=Simulation"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    static long allocatedBytes() {
+        return countAllocations ? threads.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    // Each phase is timed by calling start...() right before it and end...() right after.
+
+    SimulateEvent startSimulate() {
+        SimulateEvent event = new SimulateEvent();
+        event.startAllocated = allocatedBytes();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    void endSimulate(SimulateEvent event, Board board) {
+        endSimulate(event, board.generation, board.population(), board.births + board.deaths);
+    }
+
+    // The same for anything else that steps (like a Plane), given what the board version
+    // reads off the board.
+    void endSimulate(SimulateEvent event, long stepGeneration, long population, long changed) {
+        long now = System.nanoTime();
+        event.end();
+        long allocated = allocatedBytes() - event.startAllocated;
+        simulate.record(now - event.startNanos);
+
+        steps++;
+        generation = stepGeneration;
+        liveCells = population;
+        changedCells = changed;
+        allocatedBytesPerStep = allocated;
+        lastStepNanos = now;
+        if (now - rateStartNanos >= 1_000_000_000L) {
+            generationsPerSecond = (steps - rateStartSteps) * 1e9 / (now - rateStartNanos);
+            rateStartNanos = now;
+            rateStartSteps = steps;
+        }
+
+        if (event.shouldCommit()) {
+            event.generation = stepGeneration;
+            event.changedCells = changed;
+            event.allocated = allocated;
+            event.commit();
+        }
+    }
+
+    PublishEvent startPublish() {
+        PublishEvent event = new PublishEvent();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    void endPublish(PublishEvent event, Snapshot snapshot) {
+        long now = System.nanoTime();
+        event.end();
+        publish.record(now - event.startNanos);
+        liveCells = snapshot.population;
+        if (event.shouldCommit()) {
+            event.generation = snapshot.generation;
+            event.liveCells = snapshot.population;
+            event.commit();
+        }
+    }
+
+    RenderEvent startRender() {
+        RenderEvent event = new RenderEvent();
+        event.begin();
+        event.startNanos = System.nanoTime();
+        return event;
+    }
+
+    void endRender(RenderEvent event, long shownGeneration) {
+        long now = System.nanoTime();
+        event.end();
+        render.record(now - event.startNanos);
+        if (event.shouldCommit()) {
+            event.generation = shownGeneration;
+            event.commit();
+        }
+    }
+
+    // A few lines about the last second or so, for the overlay. Only call this on the
+    // JavaFX thread.
+    String overlayText() {
+        long now = System.nanoTime();
+        if (overlayStartCounts != null && now - overlayStartNanos < 1_000_000_000L) {
+            return overlay;
+        }
+        LatencyHistogram[] phases = { simulate, publish, render };
+        String[] names = { "simulate", "publish", "render" };
+        StringBuilder text = new StringBuilder();
+        double seconds = (now - overlayStartNanos) / 1e9;
+        for (int i = 0; i < phases.length; i++) {
+            LatencyHistogram.Summary summary = phases[i]
+                    .summarySince(overlayStartCounts == null ? null : overlayStartCounts[i]);
+            text.append(String.format("%-8s %6.0f/s  p50 %7.3f ms  p99 %7.3f ms  max %7.3f ms%n", names[i],
+                    overlayStartCounts == null ? 0 : summary.count() / seconds, summary.medianMillis(),
+                    summary.p99Millis(), summary.maxMillis()));
+        }
+        text.append(String.format("%.0f gen/s, %d live, %d changed, %d B/step", getGenerationsPerSecond(),
+                liveCells, changedCells, allocatedBytesPerStep));
+
+        overlay = text.toString();
+        overlayStartNanos = now;
+        overlayStartCounts = new long[][] { simulate.counts(), publish.counts(), render.counts() };
+        return overlay;
+    }
+
+    @Override
+    public long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public long getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public double getGenerationsPerSecond() {
+        // If nothing's been stepped for a while, it isn't going at the last rate any more.
+        return System.nanoTime() - lastStepNanos > 2_000_000_000L ? 0 : generationsPerSecond;
+    }
+
+    @Override
+    public long getLiveCells() {
+        return liveCells;
+    }
+
+    @Override
+    public long getChangedCells() {
+        return changedCells;
+    }
+
+    @Override
+    public long getAllocatedBytesPerStep() {
+        return allocatedBytesPerStep;
+    }
+
+    @Override
+    public LatencyHistogram.Summary getSimulate() {
+        return simulate.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getPublish() {
+        return publish.summary();
+    }
+
+    @Override
+    public LatencyHistogram.Summary getRender() {
+        return render.summary();
+    }
+}
@@ -0,0 +1,24 @@
+/*
+What SimulationMetrics shows to JMX clients like JConsole and VisualVM, under
+cgol:type=Simulation. The phase times are everything since the program started.
+*/
+
+public interface SimulationMetricsMXBean {
+    long getSteps();
+
+    long getGeneration();
+
+    double getGenerationsPerSecond();
+
+    long getLiveCells();
+
+    long getChangedCells();
+
+    long getAllocatedBytesPerStep();
+
+    LatencyHistogram.Summary getSimulate();
+
+    LatencyHistogram.Summary getPublish();
+
+    LatencyHistogram.Summary getRender();
+}
@@ -0,0 +1,336 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/*
+Runs the simulation on its own thread, so that neither a slow step nor a fast one holds up
+the UI.
+
+The simulation thread owns the board. Anything else that wants to change it (clicking a
+cell, stepping once, loading a file) sends it a command with submit(), and the thread runs
+it between generations. Going the other way, the thread publishes Snapshots through an
+AtomicReference: a new one is only made once the last one has been taken, so when the
+simulation runs faster than the screen refreshes, the generations in between are simply
+never copied.
+*/
+
+public class Simulator {
+    // Only ever touched by the simulation thread (through commands, if from elsewhere).
+    Board board;
+
+    // Whether to keep stepping, and how many generations per second to aim for. A rate
+    // of Double.POSITIVE_INFINITY means as fast as possible.
+    volatile boolean running = false;
+    volatile double rate = 0;
+
+    final LinkedBlockingQueue<Runnable> commands = new LinkedBlockingQueue<>();
+
+    // The latest snapshot that nobody has taken yet, or null if it's been taken.
+    final AtomicReference<Snapshot> latest = new AtomicReference<>();
+
+    // Every tile that has changed since the last snapshot was made.
+    boolean[] pendingChanges;
+    boolean hasPendingChanges = false;
+    long lastPublishedGeneration = -1;
+
+    // How many generations are left of a jump that's being stepped through the normal way.
+    // It's stepped a slice at a time, with commands and snapshots getting their turn in
+    // between, so a jump of billions of generations doesn't lock everything else out.
+    // Only set by the simulation thread, but the UI looks at it to see if a jump is going.
+    volatile long jumpRemaining = 0;
+
+    // How long each slice of a jump can go on for.
+    static final long JUMP_SLICE_NANOS = 10_000_000;
+
+    // Watches for the board repeating itself. If pauseOnCycle is set, the simulation
+    // pauses as soon as it does. The cycle the board is in (or null) is kept in cycle for
+    // the display to show. Detecting can be turned off for huge boards where even hashing
+    // the changed cells costs too much.
+    final CycleDetector cycleDetector = new CycleDetector(CycleDetector.DEFAULT_HISTORY);
+    volatile boolean detectCycles = true;
+    volatile boolean pauseOnCycle = false;
+    volatile CycleDetector.Cycle cycle = null;
+
+    // When the simulation is of an unbounded Plane rather than a board, this is it, and
+    // board is left alone until a board is set again. Snapshots of a plane only cover the
+    // window the display asks for. The cycle detector and history only know about boards,
+    // so they sit out while it's a plane.
+    Plane plane;
+    Plane.Window window = new Plane.Window(0, 0, Plane.CHUNK_SIZE, Plane.CHUNK_SIZE);
+
+    // Where the board has been, so it can be stepped backwards or scrubbed through. A frame
+    // is recorded every time something changes it, whether that's a step or an edit.
+    final History history = new History(History.DEFAULT_BUDGET);
+
+    // How long stepping and publishing take, and so on.
+    final SimulationMetrics metrics = new SimulationMetrics();
+
+    // Statistics about the board after every step, for anything that wants to follow along
+    // without looking at the board itself. Subscribers are run on virtual threads of their
+    // own, and one that falls too far behind misses generations rather than holding up the
+    // simulation.
+    final SubmissionPublisher<Statistics> statistics = new SubmissionPublisher<>(
+            Executors.newVirtualThreadPerTaskExecutor(), Flow.defaultBufferSize());
+
+    public Simulator(Board board) {
+        this.board = board;
+        pendingChanges = allChanged(board);
+        hasPendingChanges = true;
+    }
+
+    // Start the simulation thread. This isn't done by the constructor, so the thread can
+    // never see a Simulator that's only partly made.
+    public void start() {
+        Thread thread = new Thread(this::run, "Simulation");
+        // The simulation shouldn't keep the program open once the window is closed.
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static boolean[] allChanged(Board board) {
+        boolean[] changed = new boolean[board.tilesAcross * board.tilesDown];
+        java.util.Arrays.fill(changed, true);
+        return changed;
+    }
+
+    // Run something on the simulation thread, before the next generation.
+    public void submit(Runnable command) {
+        commands.add(command);
+    }
+
+    // Swap in a new board to simulate.
+    public void setBoard(Board newBoard) {
+        submit(() -> {
+            board = newBoard;
+            plane = null;
+            jumpRemaining = 0;
+            pendingChanges = allChanged(newBoard);
+            hasPendingChanges = true;
+        });
+    }
+
+    // Swap in an unbounded plane to simulate, showing the given window of it to start with.
+    public void setPlane(Plane newPlane, Plane.Window newWindow) {
+        submit(() -> {
+            plane = newPlane;
+            window = newWindow;
+            jumpRemaining = 0;
+            hasPendingChanges = true;
+        });
+    }
+
+    // Change which part of the plane snapshots show.
+    public void setWindow(Plane.Window newWindow) {
+        submit(() -> {
+            window = newWindow;
+            hasPendingChanges = true;
+        });
+    }
+
+    // Start or stop stepping, or change how fast. Either way the simulation thread might be
+    // waiting for a command with no idea when the next step is due, so send it an empty
+    // one to wake it up.
+    public void setRunning(boolean running) {
+        this.running = running;
+        submit(() -> {
+        });
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+        submit(() -> {
+        });
+    }
+
+    // Step the board once, whether or not it's running.
+    public void stepOnce() {
+        submit(this::stepBoard);
+    }
+
+    // Start stepping the board forwards the given number of generations, on top of any
+    // jump that's already going. Only call this on the simulation thread.
+    void jump(long generations) {
+        jumpRemaining += generations;
+    }
+
+    // Stop a jump partway through, wherever it's got to.
+    public void cancelJump() {
+        submit(() -> jumpRemaining = 0);
+    }
+
+    // Undo the last step (or edit), whether or not it's running.
+    public void stepBack() {
+        submit(() -> {
+            if (plane == null) {
+                history.stepBack(board);
+            }
+        });
+    }
+
+    // Put the board back how it was at a generation the history still remembers.
+    public void seek(long generation) {
+        submit(() -> {
+            if (plane == null) {
+                history.seek(board, generation);
+            }
+        });
+    }
+
+    // Change how much memory the history can use. 0 stops it recording anything.
+    public void setHistoryBudget(long bytes) {
+        submit(() -> history.setBudget(bytes));
+    }
+
+    // Step the board, keeping the cycle detector up to date. Only call this on the
+    // simulation thread.
+    void stepBoard() {
+        SimulationMetrics.SimulateEvent event = metrics.startSimulate();
+        if (plane != null) {
+            plane.step();
+            metrics.endSimulate(event, plane.generation, plane.population, plane.births + plane.deaths);
+            return;
+        }
+        board.step();
+        if (detectCycles && cycleDetector.afterStep(board) != null && pauseOnCycle) {
+            running = false;
+        }
+        metrics.endSimulate(event, board);
+        if (statistics.hasSubscribers()) {
+            statistics.offer(board.statistics(), (_, _) -> false);
+        }
+    }
+
+    // Call consumer with the statistics after every step (on some other thread), until the
+    // returned future is cancelled.
+    public CompletableFuture<Void> onStatistics(Consumer<Statistics> consumer) {
+        return statistics.consume(consumer);
+    }
+
+    // Take the newest snapshot, if there's one that hasn't been taken yet.
+    public Snapshot takeSnapshot() {
+        return latest.getAndSet(null);
+    }
+
+    void run() {
+        long nextStepTime = System.nanoTime();
+        while (true) {
+            try {
+                // Do whatever's been asked for first.
+                Runnable command;
+                while ((command = commands.poll()) != null) {
+                    command.run();
+                    collectChanges();
+                }
+
+                boolean stepped = false;
+                double currentRate = rate;
+                if (jumpRemaining > 0) {
+                    // A jump takes the place of the normal steps until it's done.
+                    stepJump();
+                    stepped = true;
+                } else if (running && currentRate > 0) {
+                    long now = System.nanoTime();
+                    if (Double.isInfinite(currentRate) || now >= nextStepTime) {
+                        stepBoard();
+                        collectChanges();
+                        stepped = true;
+
+                        // Aim for the next step to be one interval after this one was due.
+                        // If we've fallen a long way behind, don't try to catch up all at
+                        // once.
+                        long interval = Double.isInfinite(currentRate) ? 0 : (long) (1e9 / currentRate);
+                        nextStepTime = Math.max(nextStepTime + interval, now - interval);
+                    }
+                } else {
+                    nextStepTime = System.nanoTime();
+                }
+
+                publish();
+
+                if (!stepped) {
+                    // Nothing to do right now, so wait for a command or the next step,
+                    // whichever comes first. If there are changes that couldn't be
+                    // published yet, check back often so they go out soon after the last
+                    // snapshot is taken.
+                    long wait = running && currentRate > 0 ? nextStepTime - System.nanoTime() : Long.MAX_VALUE;
+                    if (hasPendingChanges) {
+                        wait = Math.min(wait, 2_000_000);
+                    }
+                    Runnable next = commands.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        next.run();
+                        collectChanges();
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // A broken command shouldn't take the whole simulation down with it.
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Step through the next slice of the jump. The board only remembers which tiles the
+    // latest step changed, so the changes are collected after every step, not just at the
+    // end.
+    void stepJump() {
+        long deadline = System.nanoTime() + JUMP_SLICE_NANOS;
+        do {
+            // Once the board is repeating itself, whole periods can be skipped without
+            // stepping through them.
+            jumpRemaining = cycleDetector.skipPeriods(board, jumpRemaining);
+            if (jumpRemaining == 0) {
+                collectChanges();
+                break;
+            }
+            stepBoard();
+            collectChanges();
+            jumpRemaining--;
+        } while (jumpRemaining > 0 && System.nanoTime() < deadline);
+    }
+
+    // Add whatever the board says has changed to the changes since the last snapshot.
+    void collectChanges() {
+        if (plane != null) {
+            // The plane keeps its own list of what's changed.
+            if (!plane.unpublished.isEmpty() || plane.generation != lastPublishedGeneration) {
+                hasPendingChanges = true;
+            }
+            cycle = null;
+            return;
+        }
+        boolean[] changed = board.changedTiles;
+        for (int i = 0; i < changed.length; i++) {
+            if (changed[i]) {
+                pendingChanges[i] = true;
+                hasPendingChanges = true;
+            }
+        }
+        // A command might have changed the generation without touching any cells.
+        if (board.generation != lastPublishedGeneration) {
+            hasPendingChanges = true;
+        }
+        cycle = cycleDetector.current(board);
+        history.record(board);
+    }
+
+    // Make a new snapshot if there's anything new to show and the last one has been taken.
+    void publish() {
+        if (!hasPendingChanges || latest.get() != null) {
+            return;
+        }
+        SimulationMetrics.PublishEvent event = metrics.startPublish();
+        Snapshot snapshot;
+        if (plane != null) {
+            snapshot = new Snapshot(plane, window, plane.takeChangedTiles(window));
+        } else {
+            snapshot = new Snapshot(board, pendingChanges);
+            pendingChanges = new boolean[board.tilesAcross * board.tilesDown];
+        }
+        latest.set(snapshot);
+        metrics.endPublish(event, snapshot);
+        lastPublishedGeneration = snapshot.generation;
+        hasPendingChanges = false;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+A frozen copy of a board at one generation, safe to hand to another thread.
+
+Snapshots are how the simulation thread shows its work to everything else (the display,
+saving, and so on) without anyone having to touch the live board while it's being stepped.
+Nothing in here changes once it's been made.
+
+A snapshot of an unbounded Plane can't hold all of it, so it only covers a window of it, with
+originX and originY saying where the window's top left corner is on the plane. For a Board
+they're both 0. Saving a plane is the exception: that needs all of it, so it gets a copy of
+every chunk instead, however far apart they are.
+*/
+
+public class Snapshot {
+    // The board (or plane) this was copied from, so the display can tell when it's looking
+    // at a snapshot of a board it has already replaced.
+    final Object source;
+
+    final int width;
+    final int height;
+    final int stride;
+    final int tilesAcross;
+    final int tilesDown;
+    final Topology topology;
+    final Rule rule;
+    final long generation;
+    final long population;
+    final long originX;
+    final long originY;
+
+    // The cells, laid out exactly like Board.cells (halo and all).
+    final long[] cells;
+
+    // Every tile that changed between the previous snapshot and this one.
+    final boolean[] changedTiles;
+
+    // Only for a snapshot that's going to be saved, under a rule with dying states: which
+    // cells are dying (laid out like cells), and the state of each of those (at y * width
+    // + x, like Board.ages). Otherwise they're null, since the display only draws living
+    // cells.
+    final long[] dying;
+    final byte[] ages;
+
+    // Only for a copy of a whole plane: the key (see Plane.key) of each chunk that has
+    // anything alive in it. The chunks' rows are in cells, CHUNK_SIZE of them each, in the
+    // same order.
+    final long[] chunkKeys;
+
+    Snapshot(Board board, boolean[] changedTiles) {
+        this(board, changedTiles, null, false);
+    }
+
+    // The same, but copying the cells into spare rather than a new array, if it's the right
+    // size. That's for something that's finished with each snapshot before it makes the
+    // next, and can save allocating (and the GC clearing up) a whole board's worth of
+    // memory every time. If forSaving is set, the dying cells are copied too.
+    Snapshot(Board board, boolean[] changedTiles, long[] spare, boolean forSaving) {
+        source = board;
+        width = board.width;
+        height = board.height;
+        stride = board.stride;
+        tilesAcross = board.tilesAcross;
+        tilesDown = board.tilesDown;
+        topology = board.topology;
+        rule = board.rule;
+        generation = board.generation;
+        population = board.population();
+        originX = 0;
+        originY = 0;
+        if (spare != null && spare.length == board.cells.length) {
+            System.arraycopy(board.cells, 0, spare, 0, spare.length);
+            cells = spare;
+        } else {
+            cells = board.cells.clone();
+        }
+        this.changedTiles = changedTiles;
+        chunkKeys = null;
+        if (!forSaving || board.rule.states <= 2) {
+            dying = null;
+            ages = null;
+            return;
+        }
+        // Generations rules already have a bit for each dying cell, but other rules only
+        // have their ages, where anything that isn't dying is 0.
+        dying = new long[cells.length];
+        if (!board.hasDyingStates()) {
+            // Nothing's dying yet, so there are no ages to look at.
+            ages = new byte[0];
+            return;
+        }
+        ages = board.ages.clone();
+        boolean generations = rule.isGenerations();
+        for (int y = 0; y < height; y++) {
+            int rowStart = board.wordIndex(0, y);
+            for (int w = 0; w < board.wordsPerRow; w++) {
+                long bits = 0;
+                if (generations) {
+                    bits = board.dying[rowStart + w];
+                } else {
+                    for (int x = w << 6; x < Math.min(width, (w + 1) << 6); x++) {
+                        if (ages[y * width + x] != 0) {
+                            bits |= 1L << x;
+                        }
+                    }
+                }
+                dying[rowStart + w] = bits & ~cells[rowStart + w] & board.wordMasks[w + 1];
+            }
+        }
+    }
+
+    // A snapshot of a window of a plane. The window is lined up with the plane's chunks, so
+    // every chunk is one tile, and copies across a row at a time.
+    Snapshot(Plane plane, Plane.Window window, boolean[] changedTiles) {
+        source = plane;
+        width = window.width();
+        height = window.height();
+        tilesAcross = width / Board.TILE_SIZE;
+        tilesDown = height / Board.TILE_SIZE;
+        stride = tilesAcross + 2;
+        topology = Topology.DEAD;
+        rule = plane.rule;
+        generation = plane.generation;
+        population = plane.population;
+        originX = window.left();
+        originY = window.top();
+        cells = new long[stride * (height + 2)];
+        for (int ty = 0; ty < tilesDown; ty++) {
+            for (int tx = 0; tx < tilesAcross; tx++) {
+                long[] rows = plane.rows(originX / Plane.CHUNK_SIZE + tx, originY / Plane.CHUNK_SIZE + ty);
+                for (int row = 0; row < Plane.CHUNK_SIZE; row++) {
+                    cells[wordIndex(tx << 6, ty * Board.TILE_SIZE + row)] = rows[row];
+                }
+            }
+        }
+        this.changedTiles = changedTiles;
+        chunkKeys = null;
+        dying = null;
+        ages = null;
+    }
+
+    // A copy of every living chunk of a plane, for saving it. That's as much work as the
+    // plane has chunks, wherever they are. There's no window, so the size and origin are
+    // all 0.
+    Snapshot(Plane plane) {
+        source = plane;
+        width = 0;
+        height = 0;
+        stride = 0;
+        tilesAcross = 0;
+        tilesDown = 0;
+        topology = Topology.DEAD;
+        rule = plane.rule;
+        generation = plane.generation;
+        population = plane.population;
+        originX = 0;
+        originY = 0;
+        int count = 0;
+        for (Plane.Chunk chunk : plane.chunks.values()) {
+            if (chunk.population > 0) {
+                count++;
+            }
+        }
+        chunkKeys = new long[count];
+        cells = new long[count * Plane.CHUNK_SIZE];
+        int i = 0;
+        for (java.util.Map.Entry<Long, Plane.Chunk> entry : plane.chunks.entrySet()) {
+            Plane.Chunk chunk = entry.getValue();
+            if (chunk.population > 0) {
+                chunkKeys[i] = entry.getKey();
+                System.arraycopy(chunk.cells, 0, cells, i * Plane.CHUNK_SIZE, Plane.CHUNK_SIZE);
+                i++;
+            }
+        }
+        changedTiles = null;
+        dying = null;
+        ages = null;
+    }
+
+    // The index in cells of the word holding cell (x, y).
+    int wordIndex(int x, int y) {
+        return (y + 1) * stride + 1 + (x >> 6);
+    }
+
+    public boolean get(int x, int y) {
+        return (cells[wordIndex(x, y)] & (1L << x)) != 0;
+    }
+
+    // How many cells are alive.
+    public long population() {
+        return population;
+    }
+}
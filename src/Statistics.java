@@ -0,0 +1,42 @@
+/*
+Some numbers about a board at one generation: how many cells are alive, how many were born and
+died in the last step, where the living cells are, and how many are alive in each 64x64 tile.
+
+The board keeps all of these up to date as it steps (from the cells that were born and died)
+and as it's edited, so making one of these never means going over the whole board. Nothing in
+here changes once it's been made, so it's safe to hand to another thread. Simulator publishes
+one after every step for anything that wants to follow along; see Simulator.statistics.
+*/
+
+public record Statistics(long generation, int width, int height, long population, long births, long deaths,
+        Box boundingBox, int tilesAcross, int tilesDown, int[] tilePopulation) {
+
+    // A rectangle of cells, including both edges.
+    public record Box(int left, int top, int right, int bottom) {
+        public int width() {
+            return right - left + 1;
+        }
+
+        public int height() {
+            return bottom - top + 1;
+        }
+    }
+
+    // The fraction of the whole board that's alive.
+    public double density() {
+        return (double) population / ((long) width * height);
+    }
+
+    // How many cells are alive in the tile at column tx and row ty.
+    public int tilePopulation(int tx, int ty) {
+        return tilePopulation[ty * tilesAcross + tx];
+    }
+
+    // The fraction of a tile that's alive. Tiles along the right and bottom edges can be
+    // smaller than the rest, if the board isn't a multiple of 64 across or down.
+    public double tileDensity(int tx, int ty) {
+        int tileWidth = Math.min(Board.TILE_SIZE, width - tx * Board.TILE_SIZE);
+        int tileHeight = Math.min(Board.TILE_SIZE, height - ty * Board.TILE_SIZE);
+        return (double) tilePopulation(tx, ty) / (tileWidth * tileHeight);
+    }
+}
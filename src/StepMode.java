@@ -0,0 +1,58 @@
+/*
+The different ways a Board can work out its next generation. They all give exactly the
+same results, they just go about it differently.
+*/
+
+public enum StepMode {
+    // One row after another, on whichever thread called step().
+    SERIAL("Single thread"),
+    // The board is cut into horizontal bands which are stepped on every core at once.
+    PARALLEL("All cores"),
+    // Only the 64x64 tiles that changed recently (or are next to ones that did) are
+    // stepped, so empty space and still lifes cost nothing.
+    SPARSE("Active tiles only"),
+    // One thread, but using SIMD instructions through the Vector API to do 256 or 512
+    // cells at once (however wide the CPU's vectors are), for two-state rules. If the
+    // Vector API isn't there (or doesn't give the right answers), this is the same as
+    // SERIAL.
+    VECTOR("Single thread, SIMD");
+
+    final String displayName;
+
+    StepMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    // ComboBoxes show whatever toString returns.
+    @Override
+    public String toString() {
+        return displayName;
+    }
+
+    // Whether VECTOR really steps with the Vector API, worked out the first time it's asked.
+    // The jdk.incubator.vector module has to have been added when the program was started,
+    // the CPU has to have vectors of more than one long, and VectorStepper has to give
+    // exactly the same boards as the plain step. VectorStepper isn't loaded at all until
+    // the module is known to be there, since loading it without the module would fail.
+    static Boolean vectorWorks = null;
+
+    static synchronized boolean vectorAvailable() {
+        if (vectorWorks == null) {
+            vectorWorks = false;
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    if (VectorStepper.SPECIES.length() < 2) {
+                        System.err.println("No SIMD support for the Vector API, so stepping without it");
+                    } else if (!VectorStepper.selfCheck()) {
+                        System.err.println("Vector API stepping doesn't match normal stepping, so not using it");
+                    } else {
+                        vectorWorks = true;
+                    }
+                } catch (LinkageError e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return vectorWorks;
+    }
+}
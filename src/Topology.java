@@ -0,0 +1,142 @@
+/*
+What happens at the edges of the board. Each option fills in the board's halo (the ring of
+cells just outside it) before a step, so that the step itself never has to think about edges.
+*/
+
+public enum Topology {
+    // Cells outside the board are always dead.
+    DEAD("Dead edges"),
+    // Leaving one edge brings you back in at the opposite one, like a donut.
+    TORUS("Wraparound"),
+    // Like the torus left to right, but going off the top or bottom brings you back in at
+    // the other end mirrored left to right.
+    KLEIN_BOTTLE("Klein bottle"),
+    // The edges act like mirrors, so the cell just outside an edge copies the one just
+    // inside it.
+    MIRROR("Mirrored edges");
+
+    // The ordinals of DEAD and TORUS (0 and 1) line up with the wraparound byte that
+    // older .cgol files stored, so they can be read back as a topology directly.
+
+    final String displayName;
+
+    Topology(String displayName) {
+        this.displayName = displayName;
+    }
+
+    // ComboBoxes show whatever toString returns.
+    @Override
+    public String toString() {
+        return displayName;
+    }
+
+    // Fill the halo of board.cells according to this topology.
+    void fillHalo(Board board) {
+        long[] cells = board.cells;
+        int stride = board.stride;
+        int wordsPerRow = board.wordsPerRow;
+        int top = 0;
+        int firstRow = stride;
+        int lastRow = board.height * stride;
+        int bottom = (board.height + 1) * stride;
+
+        // First the rows above and below the board.
+        switch (this) {
+            case DEAD -> {
+                java.util.Arrays.fill(cells, top, top + stride, 0);
+                java.util.Arrays.fill(cells, bottom, bottom + stride, 0);
+            }
+            case TORUS -> {
+                System.arraycopy(cells, lastRow + 1, cells, top + 1, wordsPerRow);
+                System.arraycopy(cells, firstRow + 1, cells, bottom + 1, wordsPerRow);
+            }
+            case KLEIN_BOTTLE -> {
+                reverseRow(board, lastRow, top);
+                reverseRow(board, firstRow, bottom);
+            }
+            case MIRROR -> {
+                System.arraycopy(cells, firstRow + 1, cells, top + 1, wordsPerRow);
+                System.arraycopy(cells, lastRow + 1, cells, bottom + 1, wordsPerRow);
+            }
+        }
+
+        // Then the single column on each side. This includes the two halo rows, which is
+        // what fills in the corners.
+        int width = board.width;
+        for (int rowStart = 0; rowStart <= bottom; rowStart += stride) {
+            long west = 0;
+            long east = 0;
+            switch (this) {
+                case DEAD -> {
+                }
+                case TORUS, KLEIN_BOTTLE -> {
+                    west = board.bit(rowStart, width - 1);
+                    east = board.bit(rowStart, 0);
+                }
+                case MIRROR -> {
+                    west = board.bit(rowStart, 0);
+                    east = board.bit(rowStart, width - 1);
+                }
+            }
+            // The west halo is the top bit of the guard word before the row, and the east
+            // halo is the bit just past the last cell.
+            cells[rowStart] = west << 63;
+            int eastWord = rowStart + 1 + (width >> 6);
+            cells[eastWord] = (cells[eastWord] & ~(1L << width)) | (east << width);
+        }
+    }
+
+    // Where the cell at (x, y) really is, for a position that may be outside the board, as
+    // y * width + x, or -1 if it's past a dead edge. This is the same as what fillHalo
+    // does for the cells just outside, but works however far out the position is, for
+    // rules that look more than one cell away.
+    int wrap(Board board, int x, int y) {
+        int width = board.width;
+        int height = board.height;
+        switch (this) {
+            case DEAD -> {
+                if (x < 0 || y < 0 || x >= width || y >= height) {
+                    return -1;
+                }
+            }
+            case TORUS -> {
+                x = Math.floorMod(x, width);
+                y = Math.floorMod(y, height);
+            }
+            case KLEIN_BOTTLE -> {
+                // Every trip over the top or bottom edge flips the board left to right.
+                x = Math.floorMod(x, width);
+                if (Math.floorDiv(y, height) % 2 != 0) {
+                    x = width - 1 - x;
+                }
+                y = Math.floorMod(y, height);
+            }
+            case MIRROR -> {
+                // Reflecting twice brings you back to how you started, so this repeats
+                // every two board widths (or heights).
+                x = Math.floorMod(x, 2 * width);
+                x = x < width ? x : 2 * width - 1 - x;
+                y = Math.floorMod(y, 2 * height);
+                y = y < height ? y : 2 * height - 1 - y;
+            }
+        }
+        return y * width + x;
+    }
+
+    // Copy the row starting at from into the row starting at to, with its cells in reverse
+    // order.
+    static void reverseRow(Board board, int from, int to) {
+        long[] cells = board.cells;
+        int wordsPerRow = board.wordsPerRow;
+        // Reversing the whole row of words puts cell x at bit (64 * wordsPerRow - 1 - x),
+        // which is shift bits too far along. Shifting back by that much finishes the job.
+        int shift = 64 * wordsPerRow - board.width;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long value = Long.reverse(cells[from + wordsPerRow - w]) >>> shift;
+            if (shift > 0 && w + 1 < wordsPerRow) {
+                value |= Long.reverse(cells[from + wordsPerRow - w - 1]) << (64 - shift);
+            }
+            cells[to + 1 + w] = value;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.Random;
+import jdk.incubator.vector.*;
+
+import static jdk.incubator.vector.VectorOperators.XOR;
+
+/*
+Steps Life-like rules with the JDK's Vector API, for StepMode.VECTOR.
+
+Board.stepBlock already works on 64 cells at a time, one long per row of a tile. This does the
+same sums on several longs side by side in one SIMD register: 4 of them (256 cells) with AVX2,
+or 8 (512 cells) with AVX-512, or whatever the CPU's preferred vector size is, which the Vector
+API picks for us. The west and east neighbours don't need any shuffling across lanes, since
+loading the same row one word to the left or right lines every word up with the word next to
+it. Whatever's left at the end of a row that doesn't fill a whole vector goes through the plain
+stepBlock.
+
+The sums are also split up a bit differently. stepBlock adds up each row of three cells for
+the rows above, at and below every row, so every row gets added up three times. Here each row
+is only added up once, into a small rolling buffer of three rows, and then the three rows of
+sums are put together. Besides saving work, that keeps each loop short: vectors only stay in
+registers if everything they go through gets inlined into one compiled method, and the JIT
+stops inlining long before the whole of lifeRule would fit. For the same reason, there are no
+little helpers for things like xor: once the JIT has compiled one on its own, it won't inline
+it anywhere else, and every vector going in and out of it ends up copied onto the heap.
+
+The Vector API is still an incubator module, so it's only there if the program was started
+with --add-modules jdk.incubator.vector (the scripts all do this). Nothing in here is touched
+until StepMode.vectorAvailable() has checked for the module, and that it gives exactly the
+same answer as the plain step (see selfCheck()), so without it, VECTOR quietly steps the plain
+way instead.
+*/
+
+public class VectorStepper {
+    static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    // Step rows from (inclusive) to to (exclusive) of the whole width of a board with a
+    // two-state rule, writing into its next buffer and marking changed tiles and births
+    // and deaths just like Board.stepRows.
+    static void stepRows(Board board, int from, int to) {
+        int endWord = board.wordsPerRow + 1;
+        boolean conway = board.rule.isConway();
+        long[] lookup = board.rule.wordLookup;
+
+        // The sums of each row of three cells (as ones and twos digits) for the row above,
+        // the row itself and the row below, reused as the rows go by. Then the four digits
+        // of the neighbour counts of one row, and what each cell would be if it were dead
+        // and if it were alive, for rules other than Conway's. Then where a vector's worth
+        // of results get copied to for counting births and deaths. They're all kept on the
+        // board, since every row overwrites whatever was left in them.
+        if (board.vectorOnes == null) {
+            board.vectorOnes = new long[3][board.stride];
+            board.vectorTwos = new long[3][board.stride];
+            board.vectorCounts = new long[6][board.stride];
+            board.vectorValues = new long[SPECIES.length()];
+            board.vectorBefores = new long[SPECIES.length()];
+        }
+        long[][] ones = board.vectorOnes;
+        long[][] twos = board.vectorTwos;
+        long[][] counts = board.vectorCounts;
+        long[] values = board.vectorValues;
+        long[] befores = board.vectorBefores;
+
+        rowSums(board, from - 1, ones[(from + 2) % 3], twos[(from + 2) % 3]);
+        rowSums(board, from, ones[from % 3], twos[from % 3]);
+        for (int y = from; y < to; y++) {
+            rowSums(board, y + 1, ones[(y + 1) % 3], twos[(y + 1) % 3]);
+            int above = (y + 2) % 3;
+            int middle = y % 3;
+            int below = (y + 1) % 3;
+            int w;
+            if (conway) {
+                w = lifeRow(board, y, ones[above], twos[above], ones[middle], twos[middle], ones[below],
+                        twos[below], values, befores);
+            } else {
+                countRow(board, y, ones[above], twos[above], ones[middle], twos[middle], ones[below], twos[below],
+                        counts);
+                w = lookupRow(board, y, counts, lookup, values, befores);
+            }
+            if (w < endWord) {
+                board.stepBlock(y, y + 1, w, endWord);
+            }
+        }
+    }
+
+    // Add up each cell of row y with its west and east neighbours, into a 2-bit number for
+    // each cell. The last few words that don't fill a vector are left alone, since
+    // stepBlock does those.
+    static void rowSums(Board board, int y, long[] ones, long[] twos) {
+        long[] current = board.cells;
+        int start = (y + 1) * board.stride;
+        int lanes = SPECIES.length();
+        int endWord = board.wordsPerRow + 1;
+        for (int w = 1; w + lanes <= endWord; w += lanes) {
+            LongVector a = LongVector.fromArray(SPECIES, current, start + w);
+            LongVector left = LongVector.fromArray(SPECIES, current, start + w - 1);
+            LongVector right = LongVector.fromArray(SPECIES, current, start + w + 1);
+            LongVector aWest = a.lanewise(VectorOperators.LSHL, 1).or(left.lanewise(VectorOperators.LSHR, 63));
+            LongVector aEast = a.lanewise(VectorOperators.LSHR, 1).or(right.lanewise(VectorOperators.LSHL, 63));
+            LongVector westA = aWest.lanewise(XOR, a);
+            westA.lanewise(XOR, aEast).intoArray(ones, w);
+            aWest.and(a).or(aEast.and(westA)).intoArray(twos, w);
+        }
+    }
+
+    // Conway's Life for as much of row y as fills whole vectors, from the row sums above,
+    // at and below it, returning the first word left over. The same sums as Board.lifeRule.
+    static int lifeRow(Board board, int y, long[] aOnes, long[] aTwos, long[] rowOnes, long[] rowTwos,
+            long[] cOnes, long[] cTwos, long[] values, long[] befores) {
+        long[] result = board.next;
+        long[] masks = board.wordMasks;
+        int start = (y + 1) * board.stride;
+        int lanes = SPECIES.length();
+        int endWord = board.wordsPerRow + 1;
+
+        int w = 1;
+        for (; w + lanes <= endWord; w += lanes) {
+            LongVector b = LongVector.fromArray(SPECIES, board.cells, start + w);
+            LongVector a1 = LongVector.fromArray(SPECIES, aOnes, w);
+            LongVector a2 = LongVector.fromArray(SPECIES, aTwos, w);
+            LongVector c1 = LongVector.fromArray(SPECIES, cOnes, w);
+            LongVector c2 = LongVector.fromArray(SPECIES, cTwos, w);
+            // The middle row's sum includes the cell itself, which doesn't count.
+            LongVector b3 = LongVector.fromArray(SPECIES, rowOnes, w);
+            LongVector b1 = b3.lanewise(XOR, b);
+            LongVector b2 = LongVector.fromArray(SPECIES, rowTwos, w).and(b3.or(b.not()));
+
+            LongVector a1b1 = a1.lanewise(XOR, b1);
+            LongVector ones = a1b1.lanewise(XOR, c1);
+            LongVector carry = a1.and(b1).or(c1.and(a1b1));
+            LongVector twos = a2.lanewise(XOR, b2).lanewise(XOR, c2.lanewise(XOR, carry));
+            LongVector atLeastTwoTwos = a2.and(b2).or(c2.and(carry)).or(a2.or(b2).and(c2.or(carry)));
+
+            LongVector mask = LongVector.fromArray(SPECIES, masks, w);
+            LongVector value = twos.and(atLeastTwoTwos.not()).and(ones.or(b)).and(mask);
+            value.intoArray(result, start + w);
+            // Most vectors of a settled board don't change at all, so only count births and
+            // deaths word by word when something did.
+            LongVector before = b.and(mask);
+            if (value.compare(VectorOperators.NE, before).anyTrue()) {
+                value.intoArray(values, 0);
+                before.intoArray(befores, 0);
+                record(board, y, w, values, befores);
+            }
+        }
+        return w;
+    }
+
+    // Add up the neighbour counts of as much of row y as fills whole vectors, the same way
+    // Board.lifeLikeRule does, into the ones, twos, fours and eights digits in counts.
+    static void countRow(Board board, int y, long[] aOnes, long[] aTwos, long[] rowOnes, long[] rowTwos,
+            long[] cOnes, long[] cTwos, long[][] counts) {
+        int start = (y + 1) * board.stride;
+        int lanes = SPECIES.length();
+        int endWord = board.wordsPerRow + 1;
+
+        for (int w = 1; w + lanes <= endWord; w += lanes) {
+            LongVector b = LongVector.fromArray(SPECIES, board.cells, start + w);
+            LongVector a1 = LongVector.fromArray(SPECIES, aOnes, w);
+            LongVector a2 = LongVector.fromArray(SPECIES, aTwos, w);
+            LongVector c1 = LongVector.fromArray(SPECIES, cOnes, w);
+            LongVector c2 = LongVector.fromArray(SPECIES, cTwos, w);
+            LongVector b3 = LongVector.fromArray(SPECIES, rowOnes, w);
+            LongVector b1 = b3.lanewise(XOR, b);
+            LongVector b2 = LongVector.fromArray(SPECIES, rowTwos, w).and(b3.or(b.not()));
+
+            LongVector a1b1 = a1.lanewise(XOR, b1);
+            a1b1.lanewise(XOR, c1).intoArray(counts[0], w);
+            LongVector carry = a1.and(b1).or(c1.and(a1b1));
+
+            LongVector abTwos = a2.lanewise(XOR, b2);
+            LongVector abFours = a2.and(b2);
+            LongVector cCarryTwos = c2.lanewise(XOR, carry);
+            LongVector cCarryFours = c2.and(carry);
+            abTwos.lanewise(XOR, cCarryTwos).intoArray(counts[1], w);
+            abFours.lanewise(XOR, cCarryFours).lanewise(XOR, abTwos.and(cCarryTwos)).intoArray(counts[2], w);
+            abFours.and(cCarryFours).intoArray(counts[3], w);
+        }
+    }
+
+    // Look up the fate of each cell of row y from its count in counts (see countRow and
+    // Board.countLookup), returning the first word left over. Whether the cells would be
+    // born and whether they'd survive are looked up one at a time, again to keep each loop
+    // short enough to inline completely.
+    static int lookupRow(Board board, int y, long[][] counts, long[] lookup, long[] values, long[] befores) {
+        lookupCounts(board, counts, lookup, 0, counts[4]);
+        lookupCounts(board, counts, lookup, 9, counts[5]);
+
+        long[] result = board.next;
+        long[] masks = board.wordMasks;
+        int start = (y + 1) * board.stride;
+        int lanes = SPECIES.length();
+        int endWord = board.wordsPerRow + 1;
+
+        int w = 1;
+        for (; w + lanes <= endWord; w += lanes) {
+            LongVector b = LongVector.fromArray(SPECIES, board.cells, start + w);
+            LongVector born = LongVector.fromArray(SPECIES, counts[4], w);
+            LongVector survives = LongVector.fromArray(SPECIES, counts[5], w);
+            LongVector mask = LongVector.fromArray(SPECIES, masks, w);
+            LongVector value = born.bitwiseBlend(survives, b).and(mask);
+            value.intoArray(result, start + w);
+            // Most vectors of a settled board don't change at all, so only count births and
+            // deaths word by word when something did.
+            LongVector before = b.and(mask);
+            if (value.compare(VectorOperators.NE, before).anyTrue()) {
+                value.intoArray(values, 0);
+                before.intoArray(befores, 0);
+                record(board, y, w, values, befores);
+            }
+        }
+        return w;
+    }
+
+    // Board.countLookup, a vector at a time, for the counts in counts, into out.
+    static void lookupCounts(Board board, long[][] counts, long[] lookup, int offset, long[] out) {
+        int lanes = SPECIES.length();
+        int endWord = board.wordsPerRow + 1;
+        // Each entry of the table in every lane. These are kept in plain variables rather
+        // than an array of vectors, since the JIT only turns vector operations into SIMD
+        // instructions when it knows exactly which kind of vector they're on, and it doesn't
+        // for one that came out of an array.
+        LongVector entry0 = LongVector.broadcast(SPECIES, lookup[offset]);
+        LongVector entry1 = LongVector.broadcast(SPECIES, lookup[offset + 1]);
+        LongVector entry2 = LongVector.broadcast(SPECIES, lookup[offset + 2]);
+        LongVector entry3 = LongVector.broadcast(SPECIES, lookup[offset + 3]);
+        LongVector entry4 = LongVector.broadcast(SPECIES, lookup[offset + 4]);
+        LongVector entry5 = LongVector.broadcast(SPECIES, lookup[offset + 5]);
+        LongVector entry6 = LongVector.broadcast(SPECIES, lookup[offset + 6]);
+        LongVector entry7 = LongVector.broadcast(SPECIES, lookup[offset + 7]);
+        LongVector entry8 = LongVector.broadcast(SPECIES, lookup[offset + 8]);
+        for (int w = 1; w + lanes <= endWord; w += lanes) {
+            LongVector ones = LongVector.fromArray(SPECIES, counts[0], w);
+            LongVector twos = LongVector.fromArray(SPECIES, counts[1], w);
+            LongVector fours = LongVector.fromArray(SPECIES, counts[2], w);
+            LongVector eights = LongVector.fromArray(SPECIES, counts[3], w);
+            // x.bitwiseBlend(y, choice) is Board.select(choice, x, y).
+            LongVector upTo1 = entry0.bitwiseBlend(entry1, ones);
+            LongVector upTo3 = entry2.bitwiseBlend(entry3, ones);
+            LongVector upTo5 = entry4.bitwiseBlend(entry5, ones);
+            LongVector upTo7 = entry6.bitwiseBlend(entry7, ones);
+            LongVector upTo7Low = upTo1.bitwiseBlend(upTo3, twos);
+            LongVector upTo7High = upTo5.bitwiseBlend(upTo7, twos);
+            upTo7Low.bitwiseBlend(upTo7High, fours).bitwiseBlend(entry8, eights).intoArray(out, w);
+        }
+    }
+
+    // Mark the tiles of the words of a vector that changed, and count their births and
+    // deaths. Only plain arrays get passed in, since a vector passed to a method that isn't
+    // inlined has to be copied onto the heap first.
+    static void record(Board board, int y, int w, long[] values, long[] befores) {
+        int tile = (y / Board.TILE_SIZE) * board.tilesAcross - 1 + w;
+        for (int lane = 0; lane < values.length; lane++, tile++) {
+            if (values[lane] != befores[lane]) {
+                board.changedTiles[tile] = true;
+                board.tileBirths[tile] += Long.bitCount(values[lane] & ~befores[lane]);
+                board.tileDeaths[tile] += Long.bitCount(befores[lane] & ~values[lane]);
+            }
+        }
+    }
+
+    // Step a few random boards both ways and make sure every bit (and every count) comes
+    // out the same. The widths are picked so some rows end part way through a vector, and
+    // there are rules that go through both lifeRow and lookupRow.
+    static boolean selfCheck() {
+        Random random = new Random(150);
+        String[] rules = { "B3/S23", "B36/S23", "B2/S", "B3678/S34678", "B1357/S1357" };
+        int[] widths = { 64 * SPECIES.length() * 3, 64 * SPECIES.length() * 2 + 100, 70 };
+        for (String rule : rules) {
+            for (int width : widths) {
+                Board scalar = new Board(width, 130, Topology.TORUS);
+                scalar.rule = Rule.parse(rule);
+                scalar.randomize(random, 0.35);
+                Board vector = new Board(width, 130, Topology.TORUS);
+                vector.rule = scalar.rule;
+                System.arraycopy(scalar.cells, 0, vector.cells, 0, scalar.cells.length);
+                vector.markAllChanged();
+                vector.stepMode = StepMode.VECTOR;
+                for (int generation = 0; generation < 4; generation++) {
+                    scalar.step();
+                    vector.step(true);
+                    if (!java.util.Arrays.equals(scalar.cells, vector.cells)
+                            || !java.util.Arrays.equals(scalar.changedTiles, vector.changedTiles)
+                            || scalar.births != vector.births || scalar.deaths != vector.deaths) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}